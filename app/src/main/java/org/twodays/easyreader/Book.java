@@ -5,12 +5,15 @@ public class Book {
     private String name;
     private String uri;
     private float scrollPercent;      // 保留，但不再使用（兼容旧数据）
-    private int lastPage;              // 上次阅读的页码（从0开始）
-    private int scrollOffset;          // 上次阅读的滚动Y偏移
+    private int lastPage;              // 旧版本的阅读页码（只在没有 readPosition 时使用）
+    private int scrollOffset;          // 旧版本的页内偏移
     private String encoding;           // 文件编码
     private int fontSize;              // 字体大小（新增）
+    private int encodingConfidence;    // 编码检测置信度（-1 未检测，100 用户选择）
+    private long readPosition;         // 阅读位置：文件中的字节偏移（-1 表示没有记录）
+    private long readTime;             // 累计阅读时长（毫秒）
 
-    public Book(int id, String name, String uri, float scrollPercent, int lastPage, int scrollOffset, String encoding, int fontSize) {
+    public Book(int id, String name, String uri, float scrollPercent, int lastPage, int scrollOffset, String encoding, int fontSize, int encodingConfidence, long readPosition, long readTime) {
         this.id = id;
         this.name = name;
         this.uri = uri;
@@ -19,6 +22,9 @@ public class Book {
         this.scrollOffset = scrollOffset;
         this.encoding = encoding;
         this.fontSize = fontSize;
+        this.encodingConfidence = encodingConfidence;
+        this.readPosition = readPosition;
+        this.readTime = readTime;
     }
 
     public int getId() { return id; }
@@ -29,9 +35,15 @@ public class Book {
     public int getScrollOffset() { return scrollOffset; }
     public String getEncoding() { return encoding; }
     public int getFontSize() { return fontSize; }
+    public int getEncodingConfidence() { return encodingConfidence; }
+    public long getReadPosition() { return readPosition; }
+    public long getReadTime() { return readTime; }
 
     public void setLastPage(int lastPage) { this.lastPage = lastPage; }
     public void setScrollOffset(int scrollOffset) { this.scrollOffset = scrollOffset; }
     public void setEncoding(String encoding) { this.encoding = encoding; }
     public void setFontSize(int fontSize) { this.fontSize = fontSize; }
+    public void setEncodingConfidence(int encodingConfidence) { this.encodingConfidence = encodingConfidence; }
+    public void setReadPosition(long readPosition) { this.readPosition = readPosition; }
+    public void setReadTime(long readTime) { this.readTime = readTime; }
 }
\ No newline at end of file
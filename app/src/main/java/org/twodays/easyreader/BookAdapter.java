@@ -8,101 +8,147 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
 
-public class BookAdapter extends RecyclerView.Adapter<BookAdapter.ViewHolder> {
+/**
+ * 书架列表。更新时由 {@link ListAdapter} 在后台比较新旧列表，只重新绑定变化的行；
+ * 选中状态按书籍 ID 记录，列表增删后不会错位。
+ */
+public class BookAdapter extends ListAdapter<ShelfItem, BookAdapter.ViewHolder> {
+
+    private static final Object PAYLOAD_SELECTION = new Object(); // 只更新选中背景
+
+    private static final DiffUtil.ItemCallback<ShelfItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<ShelfItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ShelfItem oldItem, @NonNull ShelfItem newItem) {
+            return oldItem.id == newItem.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ShelfItem oldItem, @NonNull ShelfItem newItem) {
+            return oldItem.sameContent(newItem);
+        }
+    };
 
-    private List<Book> books;
     private OnItemClickListener listener;
     private OnItemLongClickListener longClickListener;
     private OnSelectionChangedListener selectionListener;
-    private SparseBooleanArray selectedItems = new SparseBooleanArray();
+    private SparseBooleanArray selectedItems = new SparseBooleanArray(); // 书籍 ID -> 已选中
     private boolean inActionMode = false;
 
     public interface OnItemClickListener {
-        void onItemClick(Book book, int position);
+        void onItemClick(ShelfItem book, int position);
     }
 
     public interface OnItemLongClickListener {
-        boolean onItemLongClick(Book book, int position);
+        boolean onItemLongClick(ShelfItem book, int position);
     }
 
     public interface OnSelectionChangedListener {
         void onSelectionChanged(int count);
     }
 
-    public BookAdapter(List<Book> books, OnItemClickListener listener, OnItemLongClickListener longClickListener) {
-        this.books = books;
+    public BookAdapter(OnItemClickListener listener, OnItemLongClickListener longClickListener) {
+        super(DIFF_CALLBACK);
         this.listener = listener;
         this.longClickListener = longClickListener;
+        setHasStableIds(true);
     }
 
     public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
         this.selectionListener = listener;
     }
 
-    @NonNull
     @Override
-    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_book, parent, false);
-        return new ViewHolder(view);
+    public long getItemId(int position) {
+        return getItem(position).id;
     }
 
+    @NonNull
     @Override
-    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Book book = books.get(position);
-        holder.tvName.setText(book.getName());
-
-        // 根据选中状态设置背景
-        if (inActionMode && selectedItems.get(position, false)) {
-            holder.itemView.setBackgroundColor(ContextCompat.getColor(holder.itemView.getContext(), R.color.selected_item_bg));
-        } else {
-            holder.itemView.setBackgroundResource(android.R.color.transparent);
-        }
-
-        holder.itemView.setOnClickListener(v -> {
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_book, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        // 点击时再取位置，行被移动后仍然对应正确的书
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
             if (inActionMode) {
                 toggleSelection(position);
-            } else {
-                if (listener != null) {
-                    listener.onItemClick(book, position);
-                }
+            } else if (listener != null) {
+                listener.onItemClick(getItem(position), position);
             }
         });
-
-        holder.itemView.setOnLongClickListener(v -> {
-            if (longClickListener != null) {
-                return longClickListener.onItemLongClick(book, position);
+        view.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || longClickListener == null) {
+                return false;
             }
-            return false;
+            return longClickListener.onItemLongClick(getItem(position), position);
         });
+        return holder;
     }
 
     @Override
-    public int getItemCount() {
-        return books.size();
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        ShelfItem book = getItem(position);
+        holder.tvName.setText(book.name);
+        String info = book.getInfo();
+        holder.tvInfo.setText(info);
+        holder.tvInfo.setVisibility(info != null ? View.VISIBLE : View.GONE);
+        bindSelection(holder, book);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_SELECTION)) {
+            bindSelection(holder, getItem(position));
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
+    }
+
+    // 根据选中状态设置背景
+    private void bindSelection(ViewHolder holder, ShelfItem book) {
+        if (inActionMode && selectedItems.get(book.id, false)) {
+            holder.itemView.setBackgroundColor(ContextCompat.getColor(holder.itemView.getContext(), R.color.selected_item_bg));
+        } else {
+            holder.itemView.setBackgroundResource(android.R.color.transparent);
+        }
     }
 
     public void toggleSelection(int position) {
-        if (selectedItems.get(position, false)) {
-            selectedItems.delete(position);
+        int id = getItem(position).id;
+        if (selectedItems.get(id, false)) {
+            selectedItems.delete(id);
         } else {
-            selectedItems.put(position, true);
+            selectedItems.put(id, true);
         }
-        notifyItemChanged(position);
+        notifyItemChanged(position, PAYLOAD_SELECTION);
         if (selectionListener != null) {
             selectionListener.onSelectionChanged(selectedItems.size());
         }
     }
 
     public void setInActionMode(boolean inActionMode) {
+        if (this.inActionMode == inActionMode) {
+            return;
+        }
+        boolean hadSelection = selectedItems.size() > 0;
         this.inActionMode = inActionMode;
         if (!inActionMode) {
             selectedItems.clear();
         }
-        notifyDataSetChanged();
+        // 进入操作模式时还没有选中项，背景不变；退出时带 payload 通知，只重设背景而不重新绑定整行
+        if (hadSelection) {
+            notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+        }
     }
 
     public boolean isInActionMode() {
@@ -113,15 +159,20 @@ public class BookAdapter extends RecyclerView.Adapter<BookAdapter.ViewHolder> {
         return selectedItems.size();
     }
 
+    /**
+     * 选中书籍的 ID
+     */
     public SparseBooleanArray getSelectedItems() {
         return selectedItems;
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
         TextView tvName;
+        TextView tvInfo;
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
             tvName = itemView.findViewById(R.id.tv_book_name);
+            tvInfo = itemView.findViewById(R.id.tv_book_info);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+package org.twodays.easyreader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 导入后的预处理：在有限大小的线程池中并行读取文件大小、检测编码、统计字数和章节，
+ * 并建立索引缓存（{@link BookLoader#prepare}，原文件旁边有预先生成的索引文件时直接读入），
+ * 书架可以显示这些信息，第一次打开时直接命中缓存。
+ * 每处理完一本书通知主线程刷新书架。
+ * <p>
+ * 压缩导入时先把原文件压缩复制到应用内（{@link BookStorage}），书籍记录改为指向应用内的压缩文件。
+ */
+public class BookImporter {
+
+    private static final String TAG = "BookImporter";
+    private static final int POOL_SIZE = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(POOL_SIZE);
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final Set<Integer> queued = new HashSet<>();   // 已排队或正在处理的书籍
+    private static Listener listener;                             // 只在主线程访问
+
+    public interface Listener {
+        /** 一本书处理完成（在主线程调用） */
+        void onBookPrepared(int bookId);
+    }
+
+    private BookImporter() {
+    }
+
+    public static void setListener(Listener l) {
+        listener = l;
+    }
+
+    /**
+     * 处理刚加入书架的书籍，compress 为 true 时压缩保存到应用内
+     */
+    public static void enqueue(Context context, long[] bookIds, boolean compress) {
+        Context appContext = context.getApplicationContext();
+        for (long id : bookIds) {
+            if (id != -1) {
+                submit(appContext, (int) id, compress);
+            }
+        }
+    }
+
+    /**
+     * 补充处理尚未建立索引缓存的书籍（启动时调用：上次导入被中断，或来自旧版本）
+     */
+    public static void schedulePending(Context context) {
+        Context appContext = context.getApplicationContext();
+        POOL.execute(() -> {
+            List<Integer> ids = BooksDatabaseHelper.getInstance(appContext).getUnpreparedBookIds();
+            for (int id : ids) {
+                submit(appContext, id, false);
+            }
+        });
+    }
+
+    private static void submit(Context context, int bookId, boolean compress) {
+        synchronized (queued) {
+            if (!queued.add(bookId)) {
+                return;
+            }
+        }
+        POOL.execute(() -> {
+            try {
+                prepare(context, bookId, compress);
+            } finally {
+                synchronized (queued) {
+                    queued.remove(bookId);
+                }
+            }
+        });
+    }
+
+    private static void prepare(Context context, int bookId, boolean compress) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        BooksDatabaseHelper dbHelper = BooksDatabaseHelper.getInstance(context);
+        Book book = dbHelper.getBook(bookId);
+        if (book == null) {
+            return; // 已被删除
+        }
+        boolean detect = book.getEncodingConfidence() == BooksDatabaseHelper.CONFIDENCE_UNKNOWN;
+        long begin = System.currentTimeMillis();
+        Uri uri = Uri.parse(book.getUri());
+        Uri source = uri;
+        try {
+            if (compress && !BookStorage.isStore(uri)) {
+                uri = compress(context, dbHelper, bookId, uri);
+                if (uri == null) {
+                    return;
+                }
+            }
+            BookLoader.prepare(context, bookId, uri, detect ? null : book.getEncoding(), source);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Cannot read " + book.getName(), e);
+            return;
+        }
+        Log.d(TAG, "Prepared " + book.getName() + " in " + (System.currentTimeMillis() - begin) + " ms");
+        // 编码已经检测过，全文索引可以直接使用
+        LibraryIndex.schedule(context);
+        mainHandler.post(() -> {
+            if (listener != null) {
+                listener.onBookPrepared(bookId);
+            }
+        });
+    }
+
+    /**
+     * 压缩保存并让书籍记录指向压缩文件；失败时继续使用原文件，书籍已被删除时返回 null
+     */
+    private static Uri compress(Context context, BooksDatabaseHelper dbHelper, int bookId, Uri source) {
+        File target = BookStorage.getFile(context, bookId);
+        try {
+            BookStorage.compress(context, source, target);
+        } catch (IOException e) {
+            Log.w(TAG, "Compress failed, keep reading " + source, e);
+            return source;
+        }
+        Uri uri = Uri.fromFile(target);
+        if (!dbHelper.updateUri(bookId, uri.toString())) {
+            BookStorage.delete(context, bookId); // 压缩期间书籍已被删除
+            return null;
+        }
+        return uri;
+    }
+}
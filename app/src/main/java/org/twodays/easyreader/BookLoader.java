@@ -0,0 +1,373 @@
+package org.twodays.easyreader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.core.os.TraceCompat;
+
+import org.twodays.easyreader.engine.BookIndex;
+import org.twodays.easyreader.engine.BookIndexFile;
+import org.twodays.easyreader.engine.BookScanner;
+import org.twodays.easyreader.engine.Chapter;
+import org.twodays.easyreader.engine.CharsetDetector;
+import org.twodays.easyreader.engine.DecodedCache;
+import org.twodays.easyreader.engine.PreIndexer;
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 书籍加载流水线：后台线程依次完成 读取(映射) → 解码 + 章节扫描 → 分页（{@link BookScanner}）。
+ * 每扫描完一个块就把新增的章节和页面投递到主线程，已解码的部分可以先显示，
+ * 其余内容在后台继续处理。所有回调都在主线程执行，取消后不再回调。
+ * <p>
+ * 扫描结果保存到 books.db 的索引缓存，文件和编码未变化时再次打开直接读取缓存。
+ * GBK 等编码第一次完整扫描时同时写入 {@link DecodedCache}，之后打开不再解码原文件。
+ * 没有回调时（{@link #prepare}）只建立索引缓存，供导入后在后台预先处理；
+ * 书籍旁边有 {@link PreIndexer} 预先生成的索引文件时直接读入，不再扫描。
+ * <p>
+ * 传入 {@link Diagnostics.OpenRecord} 时记录各阶段的耗时和计数。
+ */
+public class BookLoader {
+
+    private static final String TAG = "BookLoader";
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ExecutorService CACHE_EXECUTOR = Executors.newSingleThreadExecutor(); // 补建解码缓存（低优先级）
+
+    public interface Callback {
+        /** 文件已映射，可以开始读取已扫描部分 */
+        void onOpened(TextDocument document);
+
+        /**
+         * 新扫描出的章节和页面（按顺序追加）：newPageStarts 为新页面的起点，
+         * pagesEnd 为已分页部分的结束位置，progress 为 0-1000
+         */
+        void onProgress(List<Chapter> newChapters, int[] newPageStarts, int pagesEnd, int progress);
+
+        void onFinished();
+
+        void onError(IOException e);
+    }
+
+    private final Context context;
+    private final int bookId;       // -1 表示不使用索引缓存
+    private final Uri uri;
+    private final String encoding;  // null 表示自动检测
+    private final Uri indexSource;  // 在其旁边查找预先生成的索引文件，不需要时为 null
+    private final Callback callback;     // null 表示只建立索引缓存
+    private final Diagnostics.OpenRecord record; // 诊断记录，不需要时为 null
+    private final CancellationSignal signal = new CancellationSignal();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // 以下字段只在工作线程访问
+    private final BookScanner scanner;
+    private DecodedCache.Writer cacheWriter; // 扫描时写入解码缓存，不需要时为 null
+
+    public BookLoader(Context context, int bookId, Uri uri, String encoding, Diagnostics.OpenRecord record,
+                      Callback callback) {
+        this(context, bookId, uri, encoding, null, record, callback);
+    }
+
+    private BookLoader(Context context, int bookId, Uri uri, String encoding, Uri indexSource,
+                       Diagnostics.OpenRecord record, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.bookId = bookId;
+        this.uri = uri;
+        this.encoding = encoding;
+        this.indexSource = indexSource;
+        this.scanner = new BookScanner(MemoryProfile.getInstance(context).maxPageChars);
+        this.record = record;
+        this.callback = callback;
+    }
+
+    public void start() {
+        EXECUTOR.execute(this::run);
+    }
+
+    /**
+     * 在当前线程检测编码、扫描章节并保存索引缓存（缓存有效时只检查一遍），不回调。
+     * source 为导入时的原文件（压缩导入时与 uri 不同），在其旁边查找预先生成的索引文件
+     */
+    static void prepare(Context context, int bookId, Uri uri, String encoding, Uri source) {
+        new BookLoader(context, bookId, uri, encoding, source, null, null).run();
+    }
+
+    /**
+     * 取消加载：工作线程在下一个块处停止，之后不会再有回调
+     */
+    public void cancel() {
+        signal.cancel();
+    }
+
+    private void run() {
+        TextDocument document = null;
+        try {
+            signal.throwIfCanceled();
+            // 阶段1：读取（映射文件）
+            long begin = System.nanoTime();
+            TraceCompat.beginSection("BookLoader.open");
+            try {
+                document = DocumentOpener.open(context, uri, encoding);
+            } finally {
+                TraceCompat.endSection();
+            }
+            if (record != null) {
+                record.opened(document, System.nanoTime() - begin);
+            }
+            saveDetectedEncoding(document);
+            final TextDocument opened = document;
+            post(() -> callback.onOpened(opened));
+
+            if (loadCachedIndex(document)) {
+                return;
+            }
+
+            // 阶段2、3：逐块解码 + 章节扫描 + 分页
+            final TextDocument doc = document;
+            final long totalBytes = Math.max(1, doc.getByteLength());
+            cacheWriter = openCacheWriter(doc);
+            long scanBegin = System.nanoTime();
+            long[] listenerNanos = new long[1];
+            TraceCompat.beginSection("BookLoader.scan");
+            try {
+                doc.scan((chars, length, charStart) -> {
+                    long blockBegin = System.nanoTime();
+                    appendToCache(chars, length);
+                    scanner.feed(chars, length, charStart);
+                    List<Chapter> newChapters = scanner.takeNewChapters();
+                    int[] newPageStarts = scanner.takeNewPages();
+                    listenerNanos[0] += System.nanoTime() - blockBegin;
+                    int pagesEnd = scanner.getPagesEnd();
+                    int progress = (int) (doc.getScannedBytes() * 1000L / totalBytes);
+                    post(() -> callback.onProgress(newChapters, newPageStarts, pagesEnd, progress));
+                }, signal::throwIfCanceled);
+            } finally {
+                TraceCompat.endSection();
+            }
+            long decodeNanos = System.nanoTime() - scanBegin - listenerNanos[0]; // 扫描中除回调以外的部分
+
+            scanner.finish(doc.length());
+            List<Chapter> lastChapters = scanner.takeNewChapters();
+            int[] lastPageStarts = scanner.takeNewPages();
+            int pagesEnd = scanner.getPagesEnd();
+            post(() -> {
+                callback.onProgress(lastChapters, lastPageStarts, pagesEnd, 1000);
+                callback.onFinished();
+            });
+            List<Chapter> chapters = scanner.getChapters();
+            Log.d(TAG, "Loaded " + chapters.size() + " chapters, " + scanner.getPageCount() + " pages");
+            saveIndex(doc);
+            finishCache(doc, chapters);
+            if (record != null) {
+                record.scanned(decodeNanos, scanner.getChapterNanos(), scanner.getPageNanos(), doc.getBlockCount());
+                record.updateCounts(doc);
+                record.finished("done", chapters.size(), scanner.getPageCount());
+            }
+        } catch (OperationCanceledException e) {
+            Log.d(TAG, "Load cancelled: " + uri);
+            if (record != null) {
+                record.failed("cancelled");
+            }
+            if (document != null) {
+                document.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Read file failed with encoding " + encoding, e);
+            if (record != null) {
+                record.failed("error: " + e.getMessage());
+            }
+            post(() -> callback.onError(e));
+        } catch (RuntimeException e) {
+            // 损坏的压缩块、失效的文件授权、数据库错误等：在静态线程池中抛出会结束进程，同样报告为加载失败
+            Log.e(TAG, "Load failed: " + uri, e);
+            if (record != null) {
+                record.failed("error: " + e);
+            }
+            IOException error = new IOException(e.toString(), e);
+            post(() -> callback.onError(error));
+        } finally {
+            if (cacheWriter != null) {
+                cacheWriter.close(); // 未完成时删除临时文件
+            }
+            if (callback == null && document != null) {
+                document.close(); // 没有使用者，处理完直接关闭
+            }
+        }
+    }
+
+    /**
+     * 文件和编码未变化时直接使用 books.db 中的索引缓存（或预先生成的索引文件）；
+     * 页面超过当前内存配置的页面大小时重新扫描
+     */
+    private boolean loadCachedIndex(TextDocument doc) {
+        if (bookId == -1) {
+            return false;
+        }
+        BookIndex cached = BooksDatabaseHelper.getInstance(context).getBookIndex(bookId);
+        BookIndex index = cached != null && cached.matches(doc.getEncoding(), doc.getByteLength(), doc.getLastModified())
+                ? cached : loadIndexFile(doc);
+        if (index == null || !index.fitsPageSize(MemoryProfile.getInstance(context).maxPageChars)) {
+            return false;
+        }
+        doc.restoreBlocks(index.blockByteStarts, index.blockCharStarts);
+        post(() -> {
+            callback.onProgress(index.chapters, index.pageStarts, index.charCount, 1000);
+            callback.onFinished();
+        });
+        Log.d(TAG, "Index cache hit: " + index.chapters.size() + " chapters, " + index.pageStarts.length + " pages");
+        if (record != null) {
+            record.indexCacheHit();
+            record.finished("done", index.chapters.size(), index.pageStarts.length);
+        }
+        // 解码缓存已被清理（或来自旧版本）时补建：阅读时在单独的低优先级线程中进行，
+        // 不占用加载线程（下一本书的打开不必等待整本书重新解码）
+        DecodedCache.Writer writer = openCacheWriter(doc);
+        if (writer != null) {
+            if (callback == null) {
+                rebuildCache(doc, writer, index.chapters); // 导入后的预处理，已在后台线程，处理完才关闭文档
+            } else {
+                CACHE_EXECUTOR.execute(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    rebuildCache(doc, writer, index.chapters);
+                });
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 逐块解码全文写入解码缓存，取消（关闭书籍）后停止；失败只放弃缓存
+     */
+    private void rebuildCache(TextDocument doc, DecodedCache.Writer writer, List<Chapter> chapters) {
+        try {
+            for (int i = 0; i < doc.getBlockCount(); i++) {
+                if (signal.isCanceled()) {
+                    return;
+                }
+                char[] chars = doc.readBlock(i);
+                writer.append(chars, chars.length);
+            }
+            writer.finish(doc.getBlockByteStarts(), doc.getBlockCharStarts(), chapters);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Rebuild decoded cache failed", e);
+        } finally {
+            writer.close(); // 未完成时删除临时文件
+        }
+    }
+
+    /**
+     * 读取原文件旁边的 &lt;书名&gt;.txt.ezi（{@link BookIndexFile}），对应同一个文件时保存为索引缓存。
+     * 只能按 URI 推出同目录文件的情况（本应用的文件选择器、file URI）才能找到
+     */
+    private BookIndex loadIndexFile(TextDocument doc) {
+        if (indexSource == null || indexSource.getQuery() != null || indexSource.getFragment() != null) {
+            return null;
+        }
+        Uri indexUri = Uri.parse(indexSource.toString() + BookIndexFile.SUFFIX);
+        BookIndex index;
+        try (InputStream in = context.getContentResolver().openInputStream(indexUri)) {
+            if (in == null) {
+                return null;
+            }
+            index = BookIndexFile.read(in, doc);
+        } catch (FileNotFoundException e) {
+            return null; // 没有预先生成索引
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "Read index file failed: " + indexUri, e);
+            return null;
+        }
+        if (index == null || !index.fitsPageSize(MemoryProfile.getInstance(context).maxPageChars)) {
+            Log.d(TAG, "Index file does not match: " + indexUri);
+            return null;
+        }
+        BooksDatabaseHelper.getInstance(context).saveBookIndex(bookId, index);
+        Log.d(TAG, "Imported index file: " + indexUri);
+        return index;
+    }
+
+    private DecodedCache.Writer openCacheWriter(TextDocument doc) {
+        if (!DecodedCache.isWorthCaching(doc.getEncoding()) || doc.hasDecodedCache()) {
+            return null;
+        }
+        try {
+            return new DecodedCache.Writer(DocumentOpener.getDecodedCacheDir(context), uri.toString(), doc);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot create decoded cache", e);
+            return null;
+        }
+    }
+
+    // 写入失败只放弃缓存，不影响加载
+    private void appendToCache(char[] chars, int length) {
+        if (cacheWriter == null) {
+            return;
+        }
+        try {
+            cacheWriter.append(chars, length);
+        } catch (IOException e) {
+            Log.w(TAG, "Write decoded cache failed", e);
+            cacheWriter.close();
+            cacheWriter = null;
+        }
+    }
+
+    private void finishCache(TextDocument doc, List<Chapter> chapters) {
+        if (cacheWriter == null) {
+            return;
+        }
+        try {
+            cacheWriter.finish(doc.getBlockByteStarts(), doc.getBlockCharStarts(), chapters);
+        } catch (IOException e) {
+            Log.w(TAG, "Write decoded cache failed", e);
+        }
+        cacheWriter.close();
+        cacheWriter = null;
+    }
+
+    /**
+     * 自动检测出的编码写回书籍记录，下次打开直接使用
+     */
+    private void saveDetectedEncoding(TextDocument doc) {
+        CharsetDetector.Result detected = doc.getDetected();
+        if (detected == null) {
+            return;
+        }
+        Log.d(TAG, "Detected encoding " + detected + ": " + uri);
+        if (bookId != -1) {
+            BooksDatabaseHelper.getInstance(context).updateEncoding(bookId, detected.encoding, detected.confidence);
+        }
+    }
+
+    private void saveIndex(TextDocument doc) {
+        if (bookId == -1) {
+            return;
+        }
+        BookIndex index = new BookIndex(doc.getEncoding(), doc.getByteLength(), doc.getLastModified(), doc.length(),
+                doc.getBlockByteStarts(), doc.getBlockCharStarts(),
+                scanner.getChapters(), scanner.getPageStarts());
+        BooksDatabaseHelper.getInstance(context).saveBookIndex(bookId, index);
+    }
+
+    private void post(Runnable action) {
+        if (callback == null) {
+            return;
+        }
+        mainHandler.post(() -> {
+            if (!signal.isCanceled()) {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,191 @@
+package org.twodays.easyreader;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 书内搜索：首次搜索时在后台建立 {@link SearchIndex} 并保存，之后只解码索引判定可能命中的块。
+ * 结果按位置顺序分批投递到主线程，取消或开始新的搜索后旧的搜索不再回调。
+ */
+public class BookSearcher {
+
+    private static final String TAG = "BookSearcher";
+    private static final int SNIPPET_CONTEXT = 16;   // 结果摘要中匹配前后保留的字符数
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 一处匹配：全文字符偏移 + 所在行的摘要
+     */
+    public static class Hit {
+        final int offset;
+        final String snippet;
+
+        Hit(int offset, String snippet) {
+            this.offset = offset;
+            this.snippet = snippet;
+        }
+
+        @Override
+        public String toString() {
+            return snippet;
+        }
+    }
+
+    public interface Callback {
+        /** 正在建立索引，done/total 为已处理的块数 */
+        void onIndexing(int done, int total);
+
+        /** 新找到的匹配（按位置递增） */
+        void onHits(List<Hit> hits);
+
+        void onFinished(int total);
+    }
+
+    private final TextDocument document;
+    private final File indexFile;            // 为 null 时索引只保存在内存中
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile SearchIndex index;      // 在工作线程写入，内存紧张时在主线程清除
+    private CancellationSignal signal;
+
+    public BookSearcher(Context context, TextDocument document, int bookId) {
+        this.document = document;
+        this.indexFile = bookId != -1 ? getIndexFile(context, bookId) : null;
+    }
+
+    static File getIndexFile(Context context, int bookId) {
+        return new File(new File(context.getFilesDir(), "search"), bookId + ".idx");
+    }
+
+    /**
+     * 删除书籍的搜索索引
+     */
+    public static void deleteIndex(Context context, int bookId) {
+        File file = getIndexFile(context, bookId);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Cannot delete " + file);
+        }
+    }
+
+    /**
+     * 开始新的搜索（取消上一次），回调在主线程执行
+     */
+    public void search(String query, Callback callback) {
+        cancel();
+        CancellationSignal current = new CancellationSignal();
+        signal = current;
+        EXECUTOR.execute(() -> {
+            try {
+                run(query, callback, current);
+            } catch (OperationCanceledException e) {
+                Log.d(TAG, "Search cancelled: " + query);
+            }
+        });
+    }
+
+    public void cancel() {
+        if (signal != null) {
+            signal.cancel();
+            signal = null;
+        }
+    }
+
+    /**
+     * 释放内存中的搜索索引（内存紧张时），下次搜索时从文件重新读取
+     */
+    public void releaseIndex() {
+        index = null;
+    }
+
+    private void run(String query, Callback callback, CancellationSignal current) {
+        SearchIndex index = ensureIndex(callback, current);
+        int blockCount = document.getBlockCount();
+        int[] charStarts = document.getBlockCharStarts();
+        int total = 0;
+        int skipped = 0;
+        for (int block = 0; block < blockCount; block++) {
+            current.throwIfCanceled();
+            if (!index.mayContain(block, query)) {
+                skipped++;
+                continue;
+            }
+            // 本块文本加上下一块开头，找出起点在本块内的全部匹配
+            char[] chars = document.readBlock(block);
+            StringBuilder sb = new StringBuilder(chars.length + query.length());
+            sb.append(chars);
+            if (query.length() > 1 && block + 1 < blockCount) {
+                char[] next = document.readBlock(block + 1);
+                sb.append(next, 0, Math.min(next.length, query.length() - 1));
+            }
+            String text = sb.toString();
+            List<Hit> hits = new ArrayList<>();
+            int from = 0;
+            int found;
+            while ((found = text.indexOf(query, from)) != -1 && found < chars.length) {
+                hits.add(new Hit(charStarts[block] + found, snippet(text, found, query.length())));
+                from = found + query.length();
+            }
+            if (!hits.isEmpty()) {
+                total += hits.size();
+                post(current, () -> callback.onHits(hits));
+            }
+        }
+        int count = total;
+        post(current, () -> callback.onFinished(count));
+        Log.d(TAG, "Found " + total + " hits for \"" + query + "\", skipped " + skipped + "/" + blockCount + " blocks");
+    }
+
+    private SearchIndex ensureIndex(Callback callback, CancellationSignal current) {
+        SearchIndex loaded = index;
+        if (loaded != null && loaded.matches(document)) {
+            return loaded;
+        }
+        if (indexFile != null) {
+            loaded = SearchIndex.load(indexFile);
+        }
+        if (loaded == null || !loaded.matches(document)) {
+            long begin = System.currentTimeMillis();
+            loaded = SearchIndex.build(document, current,
+                    (done, total) -> post(current, () -> callback.onIndexing(done, total)));
+            Log.d(TAG, "Built search index in " + (System.currentTimeMillis() - begin) + " ms");
+            if (indexFile != null) {
+                loaded.save(indexFile);
+            }
+        }
+        index = loaded;
+        return loaded;
+    }
+
+    // 匹配所在行中前后各 SNIPPET_CONTEXT 个字符
+    private static String snippet(String text, int start, int length) {
+        int from = start;
+        while (from > 0 && start - from < SNIPPET_CONTEXT && text.charAt(from - 1) != '\n') {
+            from--;
+        }
+        int to = start + length;
+        while (to < text.length() && to - start - length < SNIPPET_CONTEXT && text.charAt(to) != '\n') {
+            to++;
+        }
+        return (from < start ? "…" : "") + text.substring(from, to).trim() + (to > start + length ? "…" : "");
+    }
+
+    private void post(CancellationSignal current, Runnable action) {
+        mainHandler.post(() -> {
+            if (!current.isCanceled()) {
+                action.run();
+            }
+        });
+    }
+}
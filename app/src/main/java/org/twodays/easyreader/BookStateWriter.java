@@ -0,0 +1,221 @@
+package org.twodays.easyreader;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 阅读状态的延迟写入：字号、编码、阅读位置和阅读时长先记在内存中，
+ * 同一本书的多次修改合并为一次，在短暂延迟后（或 {@link #flush()} 时）
+ * 由后台线程在一个事务中写入 books.db。拖动字号滑块等操作不再直接写数据库。
+ * <p>
+ * 通过 {@link #getBook(int)} 读取书籍时会叠加尚未写入的修改，刚关闭又打开同一本书也能读到最新状态；
+ * 书架列表（{@link #getShelfPage(int, int)}）同样叠加阅读位置。
+ */
+public class BookStateWriter {
+
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static BookStateWriter instance;
+
+    /**
+     * 一本书尚未写入的修改；未修改的字段为 -1 或 null
+     */
+    static class Pending {
+        final int bookId;
+        int fontSize = -1;
+        String encoding;
+        int encodingConfidence;
+        long position = -1;
+        long readTime = 0;         // 累加的阅读时长（毫秒）
+
+        Pending(int bookId) {
+            this.bookId = bookId;
+        }
+
+        void mergeFrom(Pending newer) {
+            if (newer.fontSize != -1) {
+                fontSize = newer.fontSize;
+            }
+            if (newer.encoding != null) {
+                encoding = newer.encoding;
+                encodingConfidence = newer.encodingConfidence;
+            }
+            if (newer.position != -1) {
+                position = newer.position;
+            }
+            readTime += newer.readTime;
+        }
+    }
+
+    private final BooksDatabaseHelper dbHelper;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    private final Object commitLock = new Object();   // 写入事务与“读取 + 叠加”互斥，避免重复叠加
+
+    // 以下字段由 this 保护
+    private SparseArray<Pending> pending = new SparseArray<>();
+    private final List<List<Pending>> writing = new ArrayList<>(); // 已交给后台线程、尚未提交的批次（按顺序）
+    private boolean flushScheduled = false;
+
+    public static synchronized BookStateWriter getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookStateWriter(BooksDatabaseHelper.getInstance(context));
+        }
+        return instance;
+    }
+
+    private BookStateWriter(BooksDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    public synchronized void setFontSize(int bookId, int fontSize) {
+        get(bookId).fontSize = fontSize;
+        scheduleFlush();
+    }
+
+    public synchronized void setEncoding(int bookId, String encoding, int encodingConfidence) {
+        Pending state = get(bookId);
+        state.encoding = encoding;
+        state.encodingConfidence = encodingConfidence;
+        scheduleFlush();
+    }
+
+    public synchronized void setPosition(int bookId, long position) {
+        get(bookId).position = position;
+        scheduleFlush();
+    }
+
+    public synchronized void addReadTime(int bookId, long millis) {
+        if (millis > 0) {
+            get(bookId).readTime += millis;
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 读取书籍记录，并叠加尚未写入数据库的修改
+     */
+    public Book getBook(int bookId) {
+        synchronized (commitLock) {
+            Book book = dbHelper.getBook(bookId);
+            if (book != null) {
+                applyPending(book);
+            }
+            return book;
+        }
+    }
+
+    /**
+     * 书架列表的一页，阅读位置同样叠加尚未写入的修改（从阅读界面返回时 flush 可能还没有提交）
+     */
+    public List<ShelfItem> getShelfPage(int beforeId, int limit) {
+        synchronized (commitLock) {
+            List<ShelfItem> items = dbHelper.getShelfPage(beforeId, limit);
+            synchronized (this) {
+                for (int i = 0; i < items.size(); i++) {
+                    ShelfItem item = items.get(i);
+                    long position = pendingPosition(item.id);
+                    if (position != -1) {
+                        items.set(i, new ShelfItem(item.id, item.name, item.uri, item.fileSize, item.chapterCount,
+                                position));
+                    }
+                }
+            }
+            return items;
+        }
+    }
+
+    // 最新的未写入阅读位置，没有时为 -1
+    private long pendingPosition(int bookId) {
+        Pending queued = pending.get(bookId);
+        if (queued != null && queued.position != -1) {
+            return queued.position;
+        }
+        for (int i = writing.size() - 1; i >= 0; i--) {
+            for (Pending state : writing.get(i)) {
+                if (state.bookId == bookId && state.position != -1) {
+                    return state.position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private synchronized void applyPending(Book book) {
+        Pending merged = new Pending(book.getId());
+        for (List<Pending> batch : writing) {
+            for (Pending state : batch) {
+                if (state.bookId == book.getId()) {
+                    merged.mergeFrom(state);
+                }
+            }
+        }
+        Pending queued = pending.get(book.getId());
+        if (queued != null) {
+            merged.mergeFrom(queued);
+        }
+        if (merged.fontSize != -1) {
+            book.setFontSize(merged.fontSize);
+        }
+        if (merged.encoding != null) {
+            book.setEncoding(merged.encoding);
+            book.setEncodingConfidence(merged.encodingConfidence);
+        }
+        if (merged.position != -1) {
+            book.setReadPosition(merged.position);
+        }
+        book.setReadTime(book.getReadTime() + merged.readTime);
+    }
+
+    /**
+     * 立即把所有修改交给后台线程写入（onPause / onStop 时调用）
+     */
+    public void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            mainHandler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                batch.add(pending.valueAt(i));
+            }
+            pending = new SparseArray<>();
+            writing.add(batch);
+        }
+        EXECUTOR.execute(() -> {
+            synchronized (commitLock) {
+                dbHelper.saveBookStates(batch);
+                synchronized (this) {
+                    writing.remove(batch);
+                }
+            }
+        });
+    }
+
+    private Pending get(int bookId) {
+        Pending state = pending.get(bookId);
+        if (state == null) {
+            state = new Pending(bookId);
+            pending.put(bookId, state);
+        }
+        return state;
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            mainHandler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+}
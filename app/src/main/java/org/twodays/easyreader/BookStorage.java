@@ -0,0 +1,57 @@
+package org.twodays.easyreader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import org.twodays.easyreader.engine.BlockStore;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 压缩导入的书籍在应用私有目录中的位置：files/books/&lt;书籍ID&gt;.ezb（格式见 {@link BlockStore}）
+ */
+public final class BookStorage {
+
+    private static final String TAG = "BookStorage";
+
+    private BookStorage() {
+    }
+
+    static File getFile(Context context, int bookId) {
+        return new File(new File(context.getFilesDir(), "books"), bookId + BlockStore.SUFFIX);
+    }
+
+    /**
+     * URI 是否指向压缩存储的文件
+     */
+    static boolean isStore(Uri uri) {
+        String path = uri.getPath();
+        return "file".equals(uri.getScheme()) && path != null && path.endsWith(BlockStore.SUFFIX);
+    }
+
+    /**
+     * 删除书籍的压缩存储（未使用压缩导入时不存在）
+     */
+    public static void delete(Context context, int bookId) {
+        File file = getFile(context, bookId);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Cannot delete " + file);
+        }
+    }
+
+    /**
+     * 检测编码并把 source 压缩保存为 target，返回原文件大小
+     */
+    static long compress(Context context, Uri source, File target) throws IOException {
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) {
+                throw new FileNotFoundException(source.toString());
+            }
+            return BlockStore.compress(in, DocumentOpener.detect(context, source), target);
+        }
+    }
+}
@@ -3,16 +3,27 @@ package org.twodays.easyreader;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import org.twodays.easyreader.engine.BookIndex;
+import org.twodays.easyreader.engine.Chapter;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * books.db：整个进程共用一个实例和一个打开的连接（不再每次调用都打开、关闭数据库文件）。
+ * 启用预写日志（WAL），后台线程写入时主线程仍可读取；频繁的单行更新使用预编译语句。
+ */
 public class BooksDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "books.db";
-    public static final int DATABASE_VERSION = 5; // 升级到5，增加font_size列
+    public static final int DATABASE_VERSION = 12; // 升级到12，书籍记录中保存文件大小、字数和章节数
 
     public static final String TABLE_BOOKS = "books";
     public static final String COLUMN_ID = "_id";
@@ -20,9 +31,40 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_URI = "uri";
     public static final String COLUMN_SCROLL_PERCENT = "scroll_percent";
     public static final String COLUMN_LAST_PAGE = "last_page";
-    public static final String COLUMN_SCROLL_OFFSET = "scroll_offset";
+    public static final String COLUMN_SCROLL_OFFSET = "scroll_offset"; // 版本8 起为页内的字符偏移（之前为滚动的像素值）
     public static final String COLUMN_ENCODING = "encoding";
     public static final String COLUMN_FONT_SIZE = "font_size"; // 新增
+    public static final String COLUMN_ENCODING_CONFIDENCE = "encoding_confidence"; // 版本7
+    public static final String COLUMN_READ_POSITION = "read_position"; // 版本10：文件中的字节偏移，-1 表示没有记录
+    public static final String COLUMN_READ_TIME = "read_time"; // 版本11：累计阅读时长（毫秒）
+    public static final String COLUMN_CHAPTER_COUNT = "chapter_count"; // 版本12：与 file_size、char_count 一起在建立索引后写入，-1 表示未知
+
+    // 编码置信度：-1 表示尚未检测，100 表示用户手动选择
+    public static final int CONFIDENCE_UNKNOWN = -1;
+    public static final int CONFIDENCE_USER = 100;
+
+    // 索引缓存（版本6）：块索引、章节、页面边界
+    public static final String TABLE_BOOK_INDEX = "book_index";
+    public static final String TABLE_CHAPTERS = "chapters";
+    public static final String TABLE_PAGES = "pages";
+    public static final String COLUMN_BOOK_ID = "book_id";
+    public static final String COLUMN_FILE_SIZE = "file_size";
+    public static final String COLUMN_LAST_MODIFIED = "last_modified";
+    public static final String COLUMN_CHAR_COUNT = "char_count";
+    public static final String COLUMN_BLOCK_BYTES = "block_bytes";
+    public static final String COLUMN_BLOCK_CHARS = "block_chars";
+    public static final String COLUMN_CHAPTER_NO = "chapter_no";
+    public static final String COLUMN_TITLE = "title";
+    public static final String COLUMN_START_INDEX = "start_index";
+    public static final String COLUMN_PAGE_STARTS = "page_starts";
+
+    // 全文搜索（版本9）：text_segments 保存分段的位置和章节，分词后的文本在 FTS4 表中（docid 与分段相同）
+    public static final String TABLE_TEXT_SEGMENTS = "text_segments";
+    public static final String TABLE_TEXT_FTS = "text_fts";
+    public static final String TABLE_TEXT_INDEX_STATE = "text_index_state";
+    public static final String COLUMN_BODY = "body";
+    public static final String COLUMN_INDEXED_TO = "indexed_to";
+    public static final String COLUMN_COMPLETE = "complete";
 
     private static final String CREATE_TABLE_BOOKS = "CREATE TABLE " + TABLE_BOOKS + "("
             + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
@@ -32,15 +74,90 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
             + COLUMN_LAST_PAGE + " INTEGER DEFAULT 0,"
             + COLUMN_SCROLL_OFFSET + " INTEGER DEFAULT 0,"
             + COLUMN_ENCODING + " TEXT DEFAULT 'UTF-8',"
-            + COLUMN_FONT_SIZE + " INTEGER DEFAULT 16)";
+            + COLUMN_FONT_SIZE + " INTEGER DEFAULT 16,"
+            + COLUMN_ENCODING_CONFIDENCE + " INTEGER DEFAULT " + CONFIDENCE_UNKNOWN + ","
+            + COLUMN_READ_POSITION + " INTEGER DEFAULT -1,"
+            + COLUMN_READ_TIME + " INTEGER DEFAULT 0,"
+            + COLUMN_FILE_SIZE + " INTEGER DEFAULT -1,"
+            + COLUMN_CHAR_COUNT + " INTEGER DEFAULT -1,"
+            + COLUMN_CHAPTER_COUNT + " INTEGER DEFAULT -1)";
+
+    private static final String CREATE_TABLE_BOOK_INDEX = "CREATE TABLE " + TABLE_BOOK_INDEX + "("
+            + COLUMN_BOOK_ID + " INTEGER PRIMARY KEY,"
+            + COLUMN_ENCODING + " TEXT,"
+            + COLUMN_FILE_SIZE + " INTEGER,"
+            + COLUMN_LAST_MODIFIED + " INTEGER,"
+            + COLUMN_CHAR_COUNT + " INTEGER,"
+            + COLUMN_BLOCK_BYTES + " BLOB,"
+            + COLUMN_BLOCK_CHARS + " BLOB)";
+
+    private static final String CREATE_TABLE_CHAPTERS = "CREATE TABLE " + TABLE_CHAPTERS + "("
+            + COLUMN_BOOK_ID + " INTEGER,"
+            + COLUMN_CHAPTER_NO + " INTEGER,"
+            + COLUMN_TITLE + " TEXT,"
+            + COLUMN_START_INDEX + " INTEGER,"
+            + "PRIMARY KEY (" + COLUMN_BOOK_ID + ", " + COLUMN_CHAPTER_NO + "))";
+
+    // 页面边界很多（数万页），按书籍整体存为一个 BLOB
+    private static final String CREATE_TABLE_PAGES = "CREATE TABLE " + TABLE_PAGES + "("
+            + COLUMN_BOOK_ID + " INTEGER PRIMARY KEY,"
+            + COLUMN_PAGE_STARTS + " BLOB)";
+
+    private static final String CREATE_TABLE_TEXT_SEGMENTS = "CREATE TABLE " + TABLE_TEXT_SEGMENTS + "("
+            + COLUMN_ID + " INTEGER PRIMARY KEY,"
+            + COLUMN_BOOK_ID + " INTEGER,"
+            + COLUMN_CHAPTER_NO + " INTEGER,"
+            + COLUMN_TITLE + " TEXT,"
+            + COLUMN_START_INDEX + " INTEGER)";
+
+    private static final String CREATE_INDEX_TEXT_SEGMENTS = "CREATE INDEX text_segments_book ON "
+            + TABLE_TEXT_SEGMENTS + "(" + COLUMN_BOOK_ID + ", " + COLUMN_START_INDEX + ")";
+
+    private static final String CREATE_TABLE_TEXT_FTS = "CREATE VIRTUAL TABLE " + TABLE_TEXT_FTS
+            + " USING fts4(" + COLUMN_BODY + ")";
+
+    private static final String CREATE_TABLE_TEXT_INDEX_STATE = "CREATE TABLE " + TABLE_TEXT_INDEX_STATE + "("
+            + COLUMN_BOOK_ID + " INTEGER PRIMARY KEY,"
+            + COLUMN_ENCODING + " TEXT,"
+            + COLUMN_FILE_SIZE + " INTEGER,"
+            + COLUMN_LAST_MODIFIED + " INTEGER,"
+            + COLUMN_INDEXED_TO + " INTEGER,"
+            + COLUMN_COMPLETE + " INTEGER)";
+
+    private static BooksDatabaseHelper instance;
+
+    // 预编译的单行更新，首次使用时创建；SQLiteStatement 不能并发使用，这些方法都加锁
+    private SQLiteStatement updateProgressStatement;
+    private SQLiteStatement updateEncodingStatement;
+    private SQLiteStatement updateFontSizeStatement;
+    private SQLiteStatement addReadTimeStatement;
+
+    public static synchronized BooksDatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new BooksDatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
 
-    public BooksDatabaseHelper(Context context) {
+    private BooksDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_TABLE_BOOKS);
+        db.execSQL(CREATE_TABLE_BOOK_INDEX);
+        db.execSQL(CREATE_TABLE_CHAPTERS);
+        db.execSQL(CREATE_TABLE_PAGES);
+        createTextIndexTables(db);
+    }
+
+    private static void createTextIndexTables(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_TEXT_SEGMENTS);
+        db.execSQL(CREATE_INDEX_TEXT_SEGMENTS);
+        db.execSQL(CREATE_TABLE_TEXT_FTS);
+        db.execSQL(CREATE_TABLE_TEXT_INDEX_STATE);
     }
 
     @Override
@@ -60,22 +177,124 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
         if (oldVersion < 5) {
             db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_FONT_SIZE + " INTEGER DEFAULT 16");
         }
+        if (oldVersion < 6) {
+            db.execSQL(CREATE_TABLE_BOOK_INDEX);
+            db.execSQL(CREATE_TABLE_CHAPTERS);
+            db.execSQL(CREATE_TABLE_PAGES);
+        }
+        if (oldVersion < 7) {
+            // 旧书籍保持未检测状态，下次打开时自动检测
+            db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_ENCODING_CONFIDENCE
+                    + " INTEGER DEFAULT " + CONFIDENCE_UNKNOWN);
+        }
+        if (oldVersion < 8) {
+            // scroll_offset 从像素值改为页内字符偏移，像素无法可靠地换算为字符（取决于字号和屏幕宽度），回到页首
+            db.execSQL("UPDATE " + TABLE_BOOKS + " SET " + COLUMN_SCROLL_OFFSET + " = 0");
+        }
+        if (oldVersion < 9) {
+            // 已有书籍由后台索引任务补建
+            createTextIndexTables(db);
+        }
+        if (oldVersion < 10) {
+            db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_READ_POSITION + " INTEGER DEFAULT -1");
+            migrateReadPositions(db);
+        }
+        if (oldVersion < 11) {
+            db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_READ_TIME + " INTEGER DEFAULT 0");
+        }
+        if (oldVersion < 12) {
+            db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_FILE_SIZE + " INTEGER DEFAULT -1");
+            db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_CHAR_COUNT + " INTEGER DEFAULT -1");
+            db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_CHAPTER_COUNT + " INTEGER DEFAULT -1");
+            // 已有索引缓存的书直接补上，其余由 BookImporter 在后台补建
+            db.execSQL("UPDATE " + TABLE_BOOKS + " SET "
+                    + COLUMN_FILE_SIZE + " = (SELECT " + COLUMN_FILE_SIZE + " FROM " + TABLE_BOOK_INDEX
+                    + " WHERE " + COLUMN_BOOK_ID + " = " + TABLE_BOOKS + "." + COLUMN_ID + "), "
+                    + COLUMN_CHAR_COUNT + " = (SELECT " + COLUMN_CHAR_COUNT + " FROM " + TABLE_BOOK_INDEX
+                    + " WHERE " + COLUMN_BOOK_ID + " = " + TABLE_BOOKS + "." + COLUMN_ID + "), "
+                    + COLUMN_CHAPTER_COUNT + " = (SELECT COUNT(*) FROM " + TABLE_CHAPTERS
+                    + " WHERE " + COLUMN_BOOK_ID + " = " + TABLE_BOOKS + "." + COLUMN_ID + ")"
+                    + " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_BOOK_ID + " FROM " + TABLE_BOOK_INDEX + ")");
+        }
+    }
+
+    /**
+     * 把旧的 (页码, 页内偏移) 换算为字节偏移：页面起点来自索引缓存，字符偏移按所在块的
+     * 字节/字符比例估算（误差在一行之内）。没有索引缓存的书保持 -1，打开时按旧页码恢复一次
+     */
+    private static void migrateReadPositions(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT b." + COLUMN_ID + ", b." + COLUMN_LAST_PAGE + ", b." + COLUMN_SCROLL_OFFSET
+                + ", i." + COLUMN_BLOCK_BYTES + ", i." + COLUMN_BLOCK_CHARS + ", p." + COLUMN_PAGE_STARTS
+                + " FROM " + TABLE_BOOKS + " b"
+                + " JOIN " + TABLE_BOOK_INDEX + " i ON i." + COLUMN_BOOK_ID + " = b." + COLUMN_ID
+                + " JOIN " + TABLE_PAGES + " p ON p." + COLUMN_BOOK_ID + " = b." + COLUMN_ID, null);
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_BOOKS + " SET " + COLUMN_READ_POSITION
+                + " = ? WHERE " + COLUMN_ID + " = ?");
+        while (cursor.moveToNext()) {
+            int page = cursor.getInt(1);
+            int[] blockBytes = unpackInts(cursor.getBlob(3));
+            int[] blockChars = unpackInts(cursor.getBlob(4));
+            int[] pageStarts = unpackInts(cursor.getBlob(5));
+            if (page < 0 || page >= pageStarts.length || blockChars.length < 2) {
+                continue;
+            }
+            int pageEnd = page + 1 < pageStarts.length ? pageStarts[page + 1] : blockChars[blockChars.length - 1];
+            int offset = pageStarts[page] + Math.max(0, Math.min(cursor.getInt(2), pageEnd - pageStarts[page] - 1));
+            update.bindLong(1, estimateByteOffset(blockBytes, blockChars, offset));
+            update.bindLong(2, cursor.getInt(0));
+            update.execute();
+        }
+        update.close();
+        cursor.close();
     }
 
-    // 插入书籍（默认编码UTF-8，字号16）
-    public long addBook(String name, String uri) {
+    // 在所在块内按比例插值
+    private static long estimateByteOffset(int[] blockBytes, int[] blockChars, int offset) {
+        int block = 0;
+        while (block + 2 < blockChars.length && blockChars[block + 1] <= offset) {
+            block++;
+        }
+        int chars = blockChars[block + 1] - blockChars[block];
+        int bytes = blockBytes[block + 1] - blockBytes[block];
+        if (chars <= 0) {
+            return blockBytes[block];
+        }
+        return blockBytes[block] + (long) (offset - blockChars[block]) * bytes / chars;
+    }
+
+    // 插入书籍（编码由导入时检测得到，字号16）
+    public long addBook(String name, String uri, String encoding, int encodingConfidence) {
+        List<ImportedBook> books = new ArrayList<>();
+        books.add(new ImportedBook(name, uri, encoding, encodingConfidence));
+        return addBooks(books)[0];
+    }
+
+    // 批量添加书籍（同一事务，只同步一次磁盘），返回各书的 ID
+    public long[] addBooks(List<ImportedBook> books) {
         SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_NAME, name);
-        values.put(COLUMN_URI, uri);
-        values.put(COLUMN_SCROLL_PERCENT, 0f);
-        values.put(COLUMN_LAST_PAGE, 0);
-        values.put(COLUMN_SCROLL_OFFSET, 0);
-        values.put(COLUMN_ENCODING, "UTF-8");
-        values.put(COLUMN_FONT_SIZE, 16);
-        long id = db.insert(TABLE_BOOKS, null, values);
-        db.close();
-        return id;
+        long[] ids = new long[books.size()];
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_BOOKS + "("
+                    + COLUMN_NAME + ", " + COLUMN_URI + ", " + COLUMN_SCROLL_PERCENT + ", " + COLUMN_LAST_PAGE + ", "
+                    + COLUMN_SCROLL_OFFSET + ", " + COLUMN_ENCODING + ", " + COLUMN_FONT_SIZE + ", "
+                    + COLUMN_ENCODING_CONFIDENCE + ") VALUES (?, ?, 0, 0, 0, ?, 16, ?)");
+            for (int i = 0; i < books.size(); i++) {
+                ImportedBook book = books.get(i);
+                insert.bindString(1, book.name);
+                insert.bindString(2, book.uri);
+                insert.bindString(3, book.encoding);
+                insert.bindLong(4, book.encodingConfidence);
+                ids[i] = insert.executeInsert();
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            recordWrite(db, begin);
+        }
+        return ids;
     }
 
     // 获取所有书籍
@@ -93,6 +312,9 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
         int offsetIndex = cursor.getColumnIndex(COLUMN_SCROLL_OFFSET);
         int encodingIndex = cursor.getColumnIndex(COLUMN_ENCODING);
         int fontSizeIndex = cursor.getColumnIndex(COLUMN_FONT_SIZE);
+        int confidenceIndex = cursor.getColumnIndex(COLUMN_ENCODING_CONFIDENCE);
+        int positionIndex = cursor.getColumnIndex(COLUMN_READ_POSITION);
+        int readTimeIndex = cursor.getColumnIndex(COLUMN_READ_TIME);
 
         while (cursor.moveToNext()) {
             float percent = (percentIndex != -1) ? cursor.getFloat(percentIndex) : 0f;
@@ -100,6 +322,9 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
             int offset = (offsetIndex != -1) ? cursor.getInt(offsetIndex) : 0;
             String encoding = (encodingIndex != -1) ? cursor.getString(encodingIndex) : "UTF-8";
             int fontSize = (fontSizeIndex != -1) ? cursor.getInt(fontSizeIndex) : 16;
+            int confidence = (confidenceIndex != -1) ? cursor.getInt(confidenceIndex) : CONFIDENCE_UNKNOWN;
+            long position = (positionIndex != -1) ? cursor.getLong(positionIndex) : -1;
+            long readTime = (readTimeIndex != -1) ? cursor.getLong(readTimeIndex) : 0;
             Book book = new Book(
                     cursor.getInt(idIndex),
                     cursor.getString(nameIndex),
@@ -108,16 +333,48 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
                     lastPage,
                     offset,
                     encoding,
-                    fontSize
+                    fontSize,
+                    confidence,
+                    position,
+                    readTime
             );
             books.add(book);
         }
         cursor.close();
-        db.close();
         return books;
     }
 
-    // 根据ID获取单本书
+    /**
+     * 书架列表的一页（按 ID 倒序）：只读取列表需要的列，从 ID 小于 beforeId 的书开始取 limit 本
+     */
+    public List<ShelfItem> getShelfPage(int beforeId, int limit) {
+        List<ShelfItem> items = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_BOOKS, new String[]{COLUMN_ID, COLUMN_NAME, COLUMN_URI,
+                        COLUMN_FILE_SIZE, COLUMN_CHAPTER_COUNT, COLUMN_READ_POSITION},
+                COLUMN_ID + " < ?", new String[]{String.valueOf(beforeId)},
+                null, null, COLUMN_ID + " DESC", String.valueOf(limit));
+        while (cursor.moveToNext()) {
+            items.add(new ShelfItem(cursor.getInt(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getLong(3), cursor.getInt(4), cursor.getLong(5)));
+        }
+        cursor.close();
+        return items;
+    }
+
+    // 尚未建立索引缓存的书籍 ID（导入后还没有处理完，或者来自旧版本）
+    public List<Integer> getUnpreparedBookIds() {
+        List<Integer> ids = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_BOOKS, new String[]{COLUMN_ID}, COLUMN_CHAPTER_COUNT + " = -1",
+                null, null, null, COLUMN_ID + " DESC");
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getInt(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
     public Book getBook(int id) {
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.query(TABLE_BOOKS, null, COLUMN_ID + "=?",
@@ -132,12 +389,18 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
             int offsetIndex = cursor.getColumnIndex(COLUMN_SCROLL_OFFSET);
             int encodingIndex = cursor.getColumnIndex(COLUMN_ENCODING);
             int fontSizeIndex = cursor.getColumnIndex(COLUMN_FONT_SIZE);
+            int confidenceIndex = cursor.getColumnIndex(COLUMN_ENCODING_CONFIDENCE);
+            int positionIndex = cursor.getColumnIndex(COLUMN_READ_POSITION);
+            int readTimeIndex = cursor.getColumnIndex(COLUMN_READ_TIME);
 
             float percent = (percentIndex != -1) ? cursor.getFloat(percentIndex) : 0f;
             int lastPage = (lastPageIndex != -1) ? cursor.getInt(lastPageIndex) : 0;
             int offset = (offsetIndex != -1) ? cursor.getInt(offsetIndex) : 0;
             String encoding = (encodingIndex != -1) ? cursor.getString(encodingIndex) : "UTF-8";
             int fontSize = (fontSizeIndex != -1) ? cursor.getInt(fontSizeIndex) : 16;
+            int confidence = (confidenceIndex != -1) ? cursor.getInt(confidenceIndex) : CONFIDENCE_UNKNOWN;
+            long position = (positionIndex != -1) ? cursor.getLong(positionIndex) : -1;
+            long readTime = (readTimeIndex != -1) ? cursor.getLong(readTimeIndex) : 0;
 
             book = new Book(
                     cursor.getInt(idIndex),
@@ -147,46 +410,343 @@ public class BooksDatabaseHelper extends SQLiteOpenHelper {
                     lastPage,
                     offset,
                     encoding,
-                    fontSize
+                    fontSize,
+                    confidence,
+                    position,
+                    readTime
             );
         }
         cursor.close();
-        db.close();
         return book;
     }
 
-    // 更新阅读进度（页码 + 滚动偏移）
-    public void updateProgress(int bookId, int page, int scrollOffset) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_LAST_PAGE, page);
-        values.put(COLUMN_SCROLL_OFFSET, scrollOffset);
-        db.update(TABLE_BOOKS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(bookId)});
-        db.close();
+    // 更新阅读进度（文件中的字节偏移，与字号、分页和编码无关）
+    public synchronized void updateProgress(int bookId, long position) {
+        long begin = System.nanoTime();
+        if (updateProgressStatement == null) {
+            updateProgressStatement = getWritableDatabase().compileStatement("UPDATE " + TABLE_BOOKS
+                    + " SET " + COLUMN_READ_POSITION + " = ? WHERE " + COLUMN_ID + " = ?");
+        }
+        updateProgressStatement.bindLong(1, position);
+        updateProgressStatement.bindLong(2, bookId);
+        updateProgressStatement.executeUpdateDelete();
+        recordWrite(getWritableDatabase(), begin);
     }
 
-    // 更新编码
-    public void updateEncoding(int bookId, String encoding) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    // 更新编码（检测结果或用户选择）
+    public synchronized void updateEncoding(int bookId, String encoding, int encodingConfidence) {
+        long begin = System.nanoTime();
+        if (updateEncodingStatement == null) {
+            updateEncodingStatement = getWritableDatabase().compileStatement("UPDATE " + TABLE_BOOKS
+                    + " SET " + COLUMN_ENCODING + " = ?, " + COLUMN_ENCODING_CONFIDENCE + " = ? WHERE " + COLUMN_ID + " = ?");
+        }
+        updateEncodingStatement.bindString(1, encoding);
+        updateEncodingStatement.bindLong(2, encodingConfidence);
+        updateEncodingStatement.bindLong(3, bookId);
+        updateEncodingStatement.executeUpdateDelete();
+        recordWrite(getWritableDatabase(), begin);
+    }
+
+    // 更新书籍文件位置（压缩导入后指向应用内的文件），书籍不存在时返回 false
+    public boolean updateUri(int bookId, String uri) {
+        SQLiteDatabase db = getWritableDatabase();
+        long begin = System.nanoTime();
         ContentValues values = new ContentValues();
-        values.put(COLUMN_ENCODING, encoding);
-        db.update(TABLE_BOOKS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(bookId)});
-        db.close();
+        values.put(COLUMN_URI, uri);
+        int rows = db.update(TABLE_BOOKS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(bookId)});
+        recordWrite(db, begin);
+        return rows > 0;
     }
 
     // 更新字体大小
-    public void updateFontSize(int bookId, int fontSize) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_FONT_SIZE, fontSize);
-        db.update(TABLE_BOOKS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(bookId)});
-        db.close();
+    public synchronized void updateFontSize(int bookId, int fontSize) {
+        long begin = System.nanoTime();
+        if (updateFontSizeStatement == null) {
+            updateFontSizeStatement = getWritableDatabase().compileStatement("UPDATE " + TABLE_BOOKS
+                    + " SET " + COLUMN_FONT_SIZE + " = ? WHERE " + COLUMN_ID + " = ?");
+        }
+        updateFontSizeStatement.bindLong(1, fontSize);
+        updateFontSizeStatement.bindLong(2, bookId);
+        updateFontSizeStatement.executeUpdateDelete();
+        recordWrite(getWritableDatabase(), begin);
+    }
+
+    // 写入合并后的阅读状态（见 BookStateWriter），所有书籍在一个事务中
+    public synchronized void saveBookStates(List<BookStateWriter.Pending> states) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (addReadTimeStatement == null) {
+            addReadTimeStatement = db.compileStatement("UPDATE " + TABLE_BOOKS
+                    + " SET " + COLUMN_READ_TIME + " = " + COLUMN_READ_TIME + " + ? WHERE " + COLUMN_ID + " = ?");
+        }
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (BookStateWriter.Pending state : states) {
+                if (state.fontSize != -1) {
+                    updateFontSize(state.bookId, state.fontSize);
+                }
+                if (state.encoding != null) {
+                    updateEncoding(state.bookId, state.encoding, state.encodingConfidence);
+                }
+                if (state.position != -1) {
+                    updateProgress(state.bookId, state.position);
+                }
+                if (state.readTime > 0) {
+                    addReadTimeStatement.bindLong(1, state.readTime);
+                    addReadTimeStatement.bindLong(2, state.bookId);
+                    addReadTimeStatement.executeUpdateDelete();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            recordWrite(db, begin);
+        }
     }
 
-    // 删除书籍
+    // 删除书籍（连同索引缓存）
     public void deleteBook(int id) {
+        deleteBooks(new int[]{id});
+    }
+
+    // 批量删除书籍（连同索引缓存），同一事务
+    public void deleteBooks(int[] ids) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (int id : ids) {
+                db.delete(TABLE_BOOKS, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+                deleteBookIndex(db, id);
+                deleteTextIndex(db, id);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            recordWrite(db, begin);
+        }
+    }
+
+    // 读取索引缓存，不存在时返回 null
+    public BookIndex getBookIndex(int bookId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String[] args = new String[]{String.valueOf(bookId)};
+        BookIndex index = null;
+        Cursor cursor = db.query(TABLE_BOOK_INDEX,
+                new String[]{COLUMN_ENCODING, COLUMN_FILE_SIZE, COLUMN_LAST_MODIFIED, COLUMN_CHAR_COUNT,
+                        COLUMN_BLOCK_BYTES, COLUMN_BLOCK_CHARS},
+                COLUMN_BOOK_ID + "=?", args, null, null, null);
+        if (cursor.moveToFirst()) {
+            String encoding = cursor.getString(0);
+            long fileSize = cursor.getLong(1);
+            long lastModified = cursor.getLong(2);
+            int charCount = cursor.getInt(3);
+            int[] blockBytes = unpackInts(cursor.getBlob(4));
+            int[] blockChars = unpackInts(cursor.getBlob(5));
+            cursor.close();
+
+            List<Chapter> chapters = new ArrayList<>();
+            cursor = db.query(TABLE_CHAPTERS, new String[]{COLUMN_CHAPTER_NO, COLUMN_TITLE, COLUMN_START_INDEX},
+                    COLUMN_BOOK_ID + "=?", args, null, null, COLUMN_CHAPTER_NO);
+            while (cursor.moveToNext()) {
+                chapters.add(new Chapter(cursor.getString(1), cursor.getInt(2), "chapter_" + cursor.getInt(0)));
+            }
+            cursor.close();
+
+            cursor = db.query(TABLE_PAGES, new String[]{COLUMN_PAGE_STARTS},
+                    COLUMN_BOOK_ID + "=?", args, null, null, null);
+            if (cursor.moveToFirst()) {
+                index = new BookIndex(encoding, fileSize, lastModified, charCount,
+                        blockBytes, blockChars, chapters, unpackInts(cursor.getBlob(0)));
+            }
+        }
+        cursor.close();
+        return index;
+    }
+
+    // 保存索引缓存（覆盖旧的）
+    public void saveBookIndex(int bookId, BookIndex index) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_BOOKS, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
-        db.close();
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            deleteBookIndex(db, bookId);
+
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_BOOK_ID, bookId);
+            values.put(COLUMN_ENCODING, index.encoding);
+            values.put(COLUMN_FILE_SIZE, index.fileSize);
+            values.put(COLUMN_LAST_MODIFIED, index.lastModified);
+            values.put(COLUMN_CHAR_COUNT, index.charCount);
+            values.put(COLUMN_BLOCK_BYTES, packInts(index.blockByteStarts));
+            values.put(COLUMN_BLOCK_CHARS, packInts(index.blockCharStarts));
+            db.insert(TABLE_BOOK_INDEX, null, values);
+
+            SQLiteStatement insertChapter = db.compileStatement("INSERT INTO " + TABLE_CHAPTERS + "("
+                    + COLUMN_BOOK_ID + ", " + COLUMN_CHAPTER_NO + ", " + COLUMN_TITLE + ", " + COLUMN_START_INDEX
+                    + ") VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < index.chapters.size(); i++) {
+                Chapter chapter = index.chapters.get(i);
+                insertChapter.bindLong(1, bookId);
+                insertChapter.bindLong(2, i);
+                insertChapter.bindString(3, chapter.getTitle());
+                insertChapter.bindLong(4, chapter.getStartIndex());
+                insertChapter.executeInsert();
+            }
+            insertChapter.close();
+
+            values = new ContentValues();
+            values.put(COLUMN_BOOK_ID, bookId);
+            values.put(COLUMN_PAGE_STARTS, packInts(index.pageStarts));
+            db.insert(TABLE_PAGES, null, values);
+
+            // 书架显示的信息
+            values = new ContentValues();
+            values.put(COLUMN_FILE_SIZE, index.fileSize);
+            values.put(COLUMN_CHAR_COUNT, index.charCount);
+            values.put(COLUMN_CHAPTER_COUNT, index.chapters.size());
+            db.update(TABLE_BOOKS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(bookId)});
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            recordWrite(db, begin);
+        }
+    }
+
+    // 读取全文索引进度，没有时返回 null
+    public TextIndexState getTextIndexState(int bookId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_TEXT_INDEX_STATE,
+                new String[]{COLUMN_ENCODING, COLUMN_FILE_SIZE, COLUMN_LAST_MODIFIED, COLUMN_INDEXED_TO, COLUMN_COMPLETE},
+                COLUMN_BOOK_ID + "=?", new String[]{String.valueOf(bookId)}, null, null, null);
+        TextIndexState state = null;
+        if (cursor.moveToFirst()) {
+            state = new TextIndexState(cursor.getString(0), cursor.getLong(1), cursor.getLong(2),
+                    cursor.getInt(3), cursor.getInt(4) != 0);
+        }
+        cursor.close();
+        return state;
+    }
+
+    // 删除书籍的全文索引（文件或编码变化后重建）
+    public void clearTextIndex(int bookId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            deleteTextIndex(db, bookId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            recordWrite(db, begin);
+        }
+    }
+
+    /**
+     * 追加一批分段并更新索引进度（同一事务，中断后从 state.indexedTo 继续）。
+     * 书籍已被删除时不写入并返回 false。
+     */
+    public boolean appendTextSegments(int bookId, List<TextSegment> segments, TextIndexState state) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        boolean exists;
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            exists = DatabaseUtils.queryNumEntries(db, TABLE_BOOKS, COLUMN_ID + "=?",
+                    new String[]{String.valueOf(bookId)}) > 0;
+            if (exists) {
+                SQLiteStatement insertSegment = db.compileStatement("INSERT INTO " + TABLE_TEXT_SEGMENTS + "("
+                        + COLUMN_BOOK_ID + ", " + COLUMN_CHAPTER_NO + ", " + COLUMN_TITLE + ", "
+                        + COLUMN_START_INDEX + ") VALUES (?, ?, ?, ?)");
+                SQLiteStatement insertFts = db.compileStatement("INSERT INTO " + TABLE_TEXT_FTS
+                        + "(docid, " + COLUMN_BODY + ") VALUES (?, ?)");
+                for (TextSegment segment : segments) {
+                    insertSegment.bindLong(1, bookId);
+                    insertSegment.bindLong(2, segment.chapterNo);
+                    insertSegment.bindString(3, segment.chapterTitle);
+                    insertSegment.bindLong(4, segment.start);
+                    long rowId = insertSegment.executeInsert();
+                    insertFts.bindLong(1, rowId);
+                    insertFts.bindString(2, segment.text);
+                    insertFts.executeInsert();
+                }
+                insertSegment.close();
+                insertFts.close();
+
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_BOOK_ID, bookId);
+                values.put(COLUMN_ENCODING, state.encoding);
+                values.put(COLUMN_FILE_SIZE, state.fileSize);
+                values.put(COLUMN_LAST_MODIFIED, state.lastModified);
+                values.put(COLUMN_INDEXED_TO, state.indexedTo);
+                values.put(COLUMN_COMPLETE, state.complete ? 1 : 0);
+                db.replace(TABLE_TEXT_INDEX_STATE, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            recordWrite(db, begin);
+        }
+        return exists;
+    }
+
+    /**
+     * 全文搜索：match 为 FTS 查询表达式（见 LibraryIndex.buildMatch），按书籍和位置排序，最多 limit 条
+     */
+    public List<TextSegment> searchText(String match, int limit) {
+        List<TextSegment> segments = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT s." + COLUMN_BOOK_ID + ", b." + COLUMN_NAME + ", s." + COLUMN_CHAPTER_NO
+                + ", s." + COLUMN_TITLE + ", s." + COLUMN_START_INDEX + ", f." + COLUMN_BODY
+                + " FROM " + TABLE_TEXT_FTS + " f"
+                + " JOIN " + TABLE_TEXT_SEGMENTS + " s ON s." + COLUMN_ID + " = f.docid"
+                + " JOIN " + TABLE_BOOKS + " b ON b." + COLUMN_ID + " = s." + COLUMN_BOOK_ID
+                + " WHERE " + TABLE_TEXT_FTS + " MATCH ?"
+                + " ORDER BY s." + COLUMN_BOOK_ID + " DESC, s." + COLUMN_START_INDEX
+                + " LIMIT " + limit, new String[]{match});
+        while (cursor.moveToNext()) {
+            TextSegment segment = new TextSegment(cursor.getInt(0), cursor.getInt(2), cursor.getString(3),
+                    cursor.getInt(4), cursor.getString(5));
+            segment.bookName = cursor.getString(1);
+            segments.add(segment);
+        }
+        cursor.close();
+        return segments;
+    }
+
+    // 诊断：记录一次写操作的耗时；事务内的单条语句计入整个事务，不单独计数
+    private static void recordWrite(SQLiteDatabase db, long begin) {
+        if (!db.inTransaction()) {
+            Diagnostics.recordDbWrite(System.nanoTime() - begin);
+        }
+    }
+
+    private static void deleteTextIndex(SQLiteDatabase db, int bookId) {
+        String[] args = new String[]{String.valueOf(bookId)};
+        db.delete(TABLE_TEXT_FTS, "docid IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TEXT_SEGMENTS
+                + " WHERE " + COLUMN_BOOK_ID + " = ?)", args);
+        db.delete(TABLE_TEXT_SEGMENTS, COLUMN_BOOK_ID + " = ?", args);
+        db.delete(TABLE_TEXT_INDEX_STATE, COLUMN_BOOK_ID + " = ?", args);
+    }
+
+    private static void deleteBookIndex(SQLiteDatabase db, int bookId) {
+        String[] args = new String[]{String.valueOf(bookId)};
+        db.delete(TABLE_BOOK_INDEX, COLUMN_BOOK_ID + " = ?", args);
+        db.delete(TABLE_CHAPTERS, COLUMN_BOOK_ID + " = ?", args);
+        db.delete(TABLE_PAGES, COLUMN_BOOK_ID + " = ?", args);
+    }
+
+    private static byte[] packInts(int[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static int[] unpackInts(byte[] bytes) {
+        IntBuffer buffer = ByteBuffer.wrap(bytes).asIntBuffer();
+        int[] values = new int[buffer.remaining()];
+        buffer.get(values);
+        return values;
     }
 }
\ No newline at end of file
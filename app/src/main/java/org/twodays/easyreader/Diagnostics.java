@@ -0,0 +1,264 @@
+package org.twodays.easyreader;
+
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 性能诊断：记录最近 {@link #MAX_OPENS} 次打开书籍的各阶段耗时和计数（环形缓冲区），
+ * 以及 SQLite 写操作的次数和耗时，在诊断界面显示并可导出为 JSON。
+ * <p>
+ * 各阶段同时用 TraceCompat 标记，可以在 systrace / Perfetto 中查看；
+ * 这里的计时只用 System.nanoTime，每个块或每次显示只记录几个数字，开销可以忽略。
+ */
+public class Diagnostics {
+
+    static final int MAX_OPENS = 20;
+
+    private static final OpenRecord[] opens = new OpenRecord[MAX_OPENS];
+    private static int openCount = 0;   // 累计打开次数，opens[openCount % MAX_OPENS] 为下一个位置
+
+    // SQLite 写操作（每个事务或单条语句计一次）
+    private static final AtomicLong dbWrites = new AtomicLong();
+    private static final AtomicLong dbWriteNanos = new AtomicLong();
+    private static final AtomicLong dbMaxWriteNanos = new AtomicLong();
+
+    private Diagnostics() {
+    }
+
+    /**
+     * 开始记录一次打开，加入环形缓冲区（覆盖最早的记录）
+     */
+    static synchronized OpenRecord startOpen(String bookName, String encoding) {
+        OpenRecord record = new OpenRecord(bookName, encoding);
+        opens[openCount % MAX_OPENS] = record;
+        openCount++;
+        return record;
+    }
+
+    /**
+     * 最近的打开记录，最新的在前
+     */
+    static synchronized List<OpenRecord> getOpens() {
+        List<OpenRecord> list = new ArrayList<>();
+        for (int i = openCount - 1; i >= Math.max(0, openCount - MAX_OPENS); i--) {
+            list.add(opens[i % MAX_OPENS]);
+        }
+        return list;
+    }
+
+    static void recordDbWrite(long nanos) {
+        dbWrites.incrementAndGet();
+        dbWriteNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = dbMaxWriteNanos.get()) && !dbMaxWriteNanos.compareAndSet(max, nanos)) {
+            // 其他线程同时更新了最大值，重试
+        }
+    }
+
+    static String summary() {
+        StringBuilder sb = new StringBuilder();
+        long writes = dbWrites.get();
+        sb.append("SQLite 写入: ").append(writes).append(" 次, 共 ").append(ms(dbWriteNanos.get()))
+                .append(" ms, 平均 ").append(writes > 0 ? ms(dbWriteNanos.get() / writes) : "0")
+                .append(" ms, 最长 ").append(ms(dbMaxWriteNanos.get())).append(" ms\n");
+        List<OpenRecord> list = getOpens();
+        sb.append("最近打开 ").append(list.size()).append(" 次\n");
+        for (OpenRecord record : list) {
+            sb.append('\n').append(record.summary());
+        }
+        return sb.toString();
+    }
+
+    static JSONObject toJson(int memoryClass, boolean lowMemory) throws JSONException {
+        JSONObject root = new JSONObject();
+        root.put("exportedAt", System.currentTimeMillis());
+        root.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        root.put("sdk", Build.VERSION.SDK_INT);
+        root.put("memoryClassMb", memoryClass);
+        root.put("lowMemoryProfile", lowMemory);
+        root.put("databaseVersion", BooksDatabaseHelper.DATABASE_VERSION);
+        JSONObject db = new JSONObject();
+        db.put("writes", dbWrites.get());
+        db.put("writeMs", millis(dbWriteNanos.get()));
+        db.put("maxWriteMs", millis(dbMaxWriteNanos.get()));
+        root.put("sqlite", db);
+        JSONArray array = new JSONArray();
+        for (OpenRecord record : getOpens()) {
+            array.put(record.toJson());
+        }
+        root.put("opens", array);
+        return root;
+    }
+
+    // 文字摘要中的毫秒数（一位小数）
+    static String ms(long nanos) {
+        return String.format(Locale.US, "%.1f", nanos / 1e6);
+    }
+
+    // JSON 中的毫秒数（数值，便于脚本比较）
+    static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * 一次打开：加载线程写入各阶段数据，主线程写入显示数据，所有方法同步
+     */
+    static class OpenRecord {
+        final String bookName;
+        final long startedAt = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final long dbWritesAtStart = dbWrites.get();
+        private final long dbNanosAtStart = dbWriteNanos.get();
+
+        private String encoding;
+        private String status = "loading";
+        private long fileSize;
+        private boolean indexCacheHit;
+        private boolean decodedCacheHit;
+        private long openNanos;        // 读取：映射文件（或打开压缩存储）、检测编码
+        private long decodeNanos;      // 逐块解码
+        private long chapterNanos;     // 章节扫描
+        private long pageNanos;        // 分页
+        private long loadNanos;        // 开始到加载完成
+        private long firstPageNanos;   // 开始到第一屏显示
+        private int blocks;
+        private long bytesDecoded;
+        private long charsDecoded;
+        private long cacheChars;       // 从解码缓存读取的字符数
+        private int chapters;
+        private int pages;
+        private long dbWritesDuringLoad;
+        private long dbNanosDuringLoad;
+
+        // 显示（翻屏、跳转、字号变化等）
+        private int renders;
+        private int cachedRenders;     // 命中页面缓存
+        private long renderNanos;
+        private long maxRenderNanos;
+
+        private OpenRecord(String bookName, String encoding) {
+            this.bookName = bookName;
+            this.encoding = encoding;
+        }
+
+        synchronized void opened(TextDocument doc, long nanos) {
+            openNanos = nanos;
+            encoding = doc.getEncoding();
+            fileSize = doc.getByteLength();
+            decodedCacheHit = doc.hasDecodedCache();
+        }
+
+        synchronized void indexCacheHit() {
+            indexCacheHit = true;
+        }
+
+        synchronized void scanned(long decodeNanos, long chapterNanos, long pageNanos, int blocks) {
+            this.decodeNanos = decodeNanos;
+            this.chapterNanos = chapterNanos;
+            this.pageNanos = pageNanos;
+            this.blocks = blocks;
+        }
+
+        synchronized void finished(String status, int chapters, int pages) {
+            this.status = status;
+            this.chapters = chapters;
+            this.pages = pages;
+            loadNanos = System.nanoTime() - startNanos;
+            dbWritesDuringLoad = dbWrites.get() - dbWritesAtStart;
+            dbNanosDuringLoad = dbWriteNanos.get() - dbNanosAtStart;
+        }
+
+        synchronized void failed(String status) {
+            this.status = status;
+            loadNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * 记录文档累计读取和解码的数据量（包括显示时解码的块）
+         */
+        synchronized void updateCounts(TextDocument doc) {
+            bytesDecoded = doc.getBytesDecoded();
+            charsDecoded = doc.getCharsDecoded();
+            cacheChars = doc.getCacheChars();
+        }
+
+        /**
+         * 一次显示：从请求显示到文本设置到 TextView 的耗时
+         */
+        synchronized void rendered(long nanos, boolean cached) {
+            if (firstPageNanos == 0) {
+                firstPageNanos = System.nanoTime() - startNanos;
+            }
+            renders++;
+            if (cached) {
+                cachedRenders++;
+            }
+            renderNanos += nanos;
+            maxRenderNanos = Math.max(maxRenderNanos, nanos);
+        }
+
+        synchronized String summary() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(bookName).append(" [").append(encoding).append(", ").append(fileSize / 1024).append(" KB, ")
+                    .append(status).append("]\n");
+            sb.append("  读取 ").append(ms(openNanos)).append(" ms · 解码 ").append(ms(decodeNanos))
+                    .append(" ms · 章节 ").append(ms(chapterNanos)).append(" ms · 分页 ").append(ms(pageNanos))
+                    .append(" ms\n");
+            sb.append("  加载 ").append(ms(loadNanos)).append(" ms · 首屏 ").append(ms(firstPageNanos)).append(" ms");
+            if (indexCacheHit) {
+                sb.append(" · 索引缓存");
+            }
+            if (decodedCacheHit) {
+                sb.append(" · 解码缓存");
+            }
+            sb.append('\n');
+            sb.append("  解码 ").append(bytesDecoded / 1024).append(" KB → ").append(charsDecoded).append(" 字")
+                    .append(" · 缓存读取 ").append(cacheChars).append(" 字 · ").append(blocks).append(" 块\n");
+            sb.append("  ").append(chapters).append(" 章 · ").append(pages).append(" 页 · 写库 ")
+                    .append(dbWritesDuringLoad).append(" 次 ").append(ms(dbNanosDuringLoad)).append(" ms\n");
+            sb.append("  显示 ").append(renders).append(" 次（缓存 ").append(cachedRenders).append("）· 平均 ")
+                    .append(renders > 0 ? ms(renderNanos / renders) : "0").append(" ms · 最长 ")
+                    .append(ms(maxRenderNanos)).append(" ms\n");
+            return sb.toString();
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("book", bookName);
+            json.put("startedAt", startedAt);
+            json.put("status", status);
+            json.put("encoding", encoding);
+            json.put("fileSize", fileSize);
+            json.put("indexCacheHit", indexCacheHit);
+            json.put("decodedCacheHit", decodedCacheHit);
+            json.put("openMs", millis(openNanos));
+            json.put("decodeMs", millis(decodeNanos));
+            json.put("chapterScanMs", millis(chapterNanos));
+            json.put("paginateMs", millis(pageNanos));
+            json.put("loadMs", millis(loadNanos));
+            json.put("firstPageMs", millis(firstPageNanos));
+            json.put("blocks", blocks);
+            json.put("bytesDecoded", bytesDecoded);
+            json.put("charsDecoded", charsDecoded);
+            json.put("cacheChars", cacheChars);
+            json.put("chapters", chapters);
+            json.put("pages", pages);
+            json.put("dbWrites", dbWritesDuringLoad);
+            json.put("dbWriteMs", millis(dbNanosDuringLoad));
+            json.put("renders", renders);
+            json.put("cachedRenders", cachedRenders);
+            json.put("renderMs", millis(renderNanos));
+            json.put("maxRenderMs", millis(maxRenderNanos));
+            return json;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.twodays.easyreader;
+
+import android.app.ActivityManager;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * 诊断信息：显示最近打开书籍的各阶段耗时（见 {@link Diagnostics}），可导出为 JSON 附在问题报告中
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final String TAG = "DiagnosticsActivity";
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        TextView tvDiagnostics = findViewById(R.id.tv_diagnostics);
+        Button btnExport = findViewById(R.id.btn_export);
+
+        tvDiagnostics.setText(Diagnostics.summary());
+        btnExport.setOnClickListener(v -> export());
+    }
+
+    /**
+     * 写入缓存目录中的 JSON 文件，再通过 FileProvider 分享
+     */
+    private void export() {
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        File dir = new File(getCacheDir(), "diagnostics");
+        File file = new File(dir, "easyreader-diagnostics-" + System.currentTimeMillis() + ".json");
+        try {
+            String json = Diagnostics.toJson(am.getMemoryClass(), MemoryProfile.getInstance(this).lowMemory).toString(2);
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            File[] old = dir.listFiles();
+            if (old != null) {
+                for (File f : old) {
+                    f.delete(); // 只保留最新一次导出
+                }
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(json.getBytes(Charset.forName("UTF-8")));
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Export failed", e);
+            Toast.makeText(this, "导出失败", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", file);
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("application/json");
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, "导出诊断信息"));
+    }
+}
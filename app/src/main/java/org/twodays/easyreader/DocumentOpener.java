@@ -0,0 +1,181 @@
+package org.twodays.easyreader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import org.twodays.easyreader.engine.BlockStore;
+import org.twodays.easyreader.engine.CharsetDetector;
+import org.twodays.easyreader.engine.DecodedCache;
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 按 URI 打开 {@link TextDocument}：处理 ContentResolver、文件描述符和应用目录等 Android 相关部分，
+ * 文本处理本身在 engine 模块中。
+ */
+public final class DocumentOpener {
+
+    private static final String TAG = "DocumentOpener";
+
+    private DocumentOpener() {
+    }
+
+    /**
+     * 打开 URI：优先直接映射文件描述符；不支持映射的 URI（如管道）先复制到缓存目录再映射。
+     * encoding 为 null 时根据文件内容自动检测。
+     */
+    public static TextDocument open(Context context, Uri uri, String encoding) throws IOException {
+        TextDocument document = BookStorage.isStore(uri)
+                ? TextDocument.open(BlockStore.open(new File(uri.getPath())), encoding)
+                : openMapped(context, uri, encoding);
+        document.setWindowBlocks(MemoryProfile.getInstance(context).windowBlocks);
+        if (DecodedCache.isWorthCaching(document.getEncoding())) {
+            DecodedCache cache = DecodedCache.open(getDecodedCacheDir(context), uri.toString(),
+                    document.getEncoding(), document.getByteLength(), document.getLastModified());
+            if (cache != null) {
+                document.attachDecoded(cache);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * 文件是否仍是打开 document 时的版本（大小和修改时间相同，只做一次 fstat）；无法判断时返回 false
+     */
+    static boolean isUnchanged(Context context, Uri uri, TextDocument document) {
+        if (BookStorage.isStore(uri)) {
+            return true; // 应用私有目录中的压缩存储，导入后不再修改
+        }
+        try {
+            ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (pfd == null) {
+                return false;
+            }
+            try {
+                // 复制到缓存目录后映射的文件（管道等）大小未知，总是重新打开
+                return pfd.getStatSize() == document.getByteLength()
+                        && getLastModified(context, uri, pfd) == document.getLastModified();
+            } finally {
+                pfd.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Stat failed: " + uri, e);
+            return false;
+        }
+    }
+
+    static File getDecodedCacheDir(Context context) {
+        return new File(context.getCacheDir(), "decoded");
+    }
+
+    private static TextDocument openMapped(Context context, Uri uri, String encoding) throws IOException {
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        long size = pfd.getStatSize();
+        long lastModified = getLastModified(context, uri, pfd);
+        ByteBuffer data = null;
+        try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+            if (size >= 0) {
+                data = TextDocument.map(in.getChannel(), size);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Map failed, fall back to cache copy: " + uri, e);
+        }
+        if (data == null) {
+            data = spoolAndMap(context, uri);
+        }
+        return TextDocument.open(data, encoding, lastModified);
+    }
+
+    /**
+     * 文件修改时间：优先 fstat，其次查询文档提供者的 last_modified 列
+     */
+    private static long getLastModified(Context context, Uri uri, ParcelFileDescriptor pfd) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                return Os.fstat(pfd.getFileDescriptor()).st_mtime * 1000L;
+            } catch (ErrnoException e) {
+                Log.w(TAG, "fstat failed: " + uri, e);
+            }
+        }
+        try (Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{DocumentsContract.Document.COLUMN_LAST_MODIFIED}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // 提供者不支持该列
+        }
+        return 0;
+    }
+
+    private static ByteBuffer spoolAndMap(Context context, Uri uri) throws IOException {
+        File spool = File.createTempFile("spool_", ".txt", context.getCacheDir());
+        try {
+            try (InputStream in = context.getContentResolver().openInputStream(uri);
+                 OutputStream out = new FileOutputStream(spool)) {
+                if (in == null) {
+                    throw new FileNotFoundException(uri.toString());
+                }
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(spool, "r")) {
+                return TextDocument.map(raf.getChannel(), raf.length());
+            }
+        } finally {
+            // 映射建立后文件即可删除，映射本身保持有效
+            spool.delete();
+        }
+    }
+
+    /**
+     * 检测 URI 指向的文件的编码，只读取采样部分；无法打开时返回 UTF-8
+     */
+    public static CharsetDetector.Result detect(Context context, Uri uri) {
+        try {
+            ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (pfd != null) {
+                long size = pfd.getStatSize();
+                try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+                    if (size >= 0) {
+                        return CharsetDetector.detect(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Map failed, sampling from stream: " + uri, e);
+        }
+        // 不可映射的 URI：只检测开头部分
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in != null) {
+                return CharsetDetector.detect(in);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Detect failed: " + uri, e);
+        }
+        return new CharsetDetector.Result("UTF-8", 0);
+    }
+}
@@ -1,11 +1,13 @@
 package org.twodays.easyreader;
 
+import android.content.ClipData;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -19,14 +21,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class FilePickerActivity extends AppCompatActivity {
 
     private ListView listView;
     private TextView tvPath;
     private File currentDir;
+    private Button btnImport;
     private List<File> fileList = new ArrayList<>();
+    private final Set<File> selectedFiles = new LinkedHashSet<>(); // 长按多选的文件（可跨文件夹）
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -35,6 +41,8 @@ public class FilePickerActivity extends AppCompatActivity {
 
         listView = findViewById(R.id.list_view);
         tvPath = findViewById(R.id.tv_path);
+        btnImport = findViewById(R.id.btn_import);
+        btnImport.setOnClickListener(v -> returnFiles(new ArrayList<>(selectedFiles)));
 
         // 使用应用的外部私有目录，无需权限
         currentDir = getExternalFilesDir(null);
@@ -53,6 +61,7 @@ public class FilePickerActivity extends AppCompatActivity {
     }
 
     private void loadFileList(File dir) {
+        currentDir = dir;
         tvPath.setText(dir.getAbsolutePath());
 
         File[] files = dir.listFiles(new FileFilter() {
@@ -83,7 +92,7 @@ public class FilePickerActivity extends AppCompatActivity {
             if (file.isDirectory()) {
                 names.add("📁 " + file.getName());
             } else {
-                names.add("📄 " + file.getName());
+                names.add((selectedFiles.contains(file) ? "✅ " : "📄 ") + file.getName());
             }
         }
 
@@ -97,23 +106,59 @@ public class FilePickerActivity extends AppCompatActivity {
                 if (selected.isDirectory()) {
                     // 进入子文件夹
                     loadFileList(selected);
+                } else if (!selectedFiles.isEmpty()) {
+                    // 多选中：点击切换选中状态
+                    toggleSelection(selected);
                 } else {
                     // 返回选中的文件
-                    returnFile(selected);
+                    List<File> files = new ArrayList<>();
+                    files.add(selected);
+                    returnFiles(files);
                 }
             }
         });
+        // 长按文件开始多选
+        listView.setOnItemLongClickListener((parent, view, position, id) -> {
+            File selected = fileList.get(position);
+            if (selected.isDirectory()) {
+                return false;
+            }
+            toggleSelection(selected);
+            return true;
+        });
     }
 
-    private void returnFile(File file) {
-        // 使用 FileProvider 生成 content URI
-        Uri uri = FileProvider.getUriForFile(this,
-                getPackageName() + ".fileprovider", file);
-        // 授予临时读取权限
-        grantUriPermission(getPackageName(), uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+    private void toggleSelection(File file) {
+        if (!selectedFiles.remove(file)) {
+            selectedFiles.add(file);
+        }
+        btnImport.setText("导入 " + selectedFiles.size() + " 个文件");
+        btnImport.setVisibility(selectedFiles.isEmpty() ? View.GONE : View.VISIBLE);
+        int position = listView.getFirstVisiblePosition();
+        loadFileList(currentDir);
+        listView.setSelection(position);
+    }
+
+    private void returnFiles(List<File> files) {
         Intent result = new Intent();
-        result.setData(uri);
+        ClipData clipData = null;
+        for (File file : files) {
+            // 使用 FileProvider 生成 content URI
+            Uri uri = FileProvider.getUriForFile(this,
+                    getPackageName() + ".fileprovider", file);
+            // 授予临时读取权限
+            grantUriPermission(getPackageName(), uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            if (clipData == null) {
+                result.setData(uri);
+                clipData = ClipData.newRawUri(null, uri);
+            } else {
+                clipData.addItem(new ClipData.Item(uri));
+            }
+        }
+        // 多个文件与系统选择器的 EXTRA_ALLOW_MULTIPLE 一样放在 ClipData 中
+        result.setClipData(clipData);
+        result.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         setResult(RESULT_OK, result);
         finish();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+package org.twodays.easyreader;
+
+/**
+ * 待加入书架的一本书（批量导入时使用）
+ */
+public class ImportedBook {
+    final String name;
+    final String uri;
+    final String encoding;
+    final int encodingConfidence;
+
+    public ImportedBook(String name, String uri, String encoding, int encodingConfidence) {
+        this.name = name;
+        this.uri = uri;
+        this.encoding = encoding;
+        this.encodingConfidence = encodingConfidence;
+    }
+}
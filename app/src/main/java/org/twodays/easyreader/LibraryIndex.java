@@ -0,0 +1,310 @@
+package org.twodays.easyreader;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+import org.twodays.easyreader.engine.ChapterScanner;
+import org.twodays.easyreader.engine.CharsetDetector;
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 书架全文搜索：后台逐本扫描书籍，按章节分段写入 books.db 的 FTS4 表。
+ * <p>
+ * SQLite 自带的分词器不能切分中文，所以写入前在每个非 ASCII 字符两侧插入分隔符使其单独成词，
+ * 查询时把中文词转成逐字的短语查询。分隔符可以直接去掉，FTS 表中保存的文本同时用于生成摘要。每处理完一个块就提交一次并记录进度，
+ * 中断（退出、被系统杀死）后下次从记录的位置继续；索引在低优先级的单独线程上进行，不阻塞界面。
+ */
+public class LibraryIndex {
+
+    private static final String TAG = "LibraryIndex";
+    static final int MAX_SEGMENT_CHARS = 2000;   // 每段最大字符数（尽量在换行处切分）
+    private static final int MAX_RESULTS = 200;
+    private static final int SNIPPET_CONTEXT = 20;
+    private static final char SEPARATOR = '\u0001';   // simple 分词器把 ASCII 控制字符视为分隔符，正常文本中不会出现
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean queued = new AtomicBoolean(false);
+
+    /**
+     * 一条搜索结果
+     */
+    public static class Result {
+        final int bookId;
+        final String bookName;
+        final String chapterTitle;
+        final int offset;        // 匹配在全文中的字符偏移
+        final String snippet;
+
+        Result(int bookId, String bookName, String chapterTitle, int offset, String snippet) {
+            this.bookId = bookId;
+            this.bookName = bookName;
+            this.chapterTitle = chapterTitle;
+            this.offset = offset;
+            this.snippet = snippet;
+        }
+    }
+
+    private LibraryIndex() {
+    }
+
+    /**
+     * 为书架中尚未索引完成的书籍建立索引（导入新书、启动时调用）。
+     * 已在排队时忽略；正在索引时排在其后再检查一遍。
+     */
+    public static void schedule(Context context) {
+        if (!queued.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        EXECUTOR.execute(() -> {
+            queued.set(false);
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            List<Book> books = BooksDatabaseHelper.getInstance(appContext).getAllBooks();
+            for (Book book : books) {
+                try {
+                    indexBook(appContext, book);
+                } catch (IOException | SecurityException e) {
+                    Log.w(TAG, "Cannot index " + book.getName(), e);
+                }
+            }
+        });
+    }
+
+    private static void indexBook(Context context, Book book) throws IOException {
+        BooksDatabaseHelper dbHelper = BooksDatabaseHelper.getInstance(context);
+        TextIndexState state = dbHelper.getTextIndexState(book.getId());
+        if (state != null && state.complete && state.encoding.equals(book.getEncoding())) {
+            return; // 文件是否变化要打开后才知道，完成的索引按编码判断即可
+        }
+        boolean detect = book.getEncodingConfidence() == BooksDatabaseHelper.CONFIDENCE_UNKNOWN;
+        TextDocument document = DocumentOpener.open(context, Uri.parse(book.getUri()), detect ? null : book.getEncoding());
+        try {
+            CharsetDetector.Result detected = document.getDetected();
+            if (detected != null) {
+                dbHelper.updateEncoding(book.getId(), detected.encoding, detected.confidence);
+            }
+            int resumeFrom = 0;
+            if (state != null) {
+                if (state.matches(document.getEncoding(), document.getByteLength(), document.getLastModified())) {
+                    if (state.complete) {
+                        return;
+                    }
+                    resumeFrom = state.indexedTo;
+                } else {
+                    dbHelper.clearTextIndex(book.getId());
+                }
+            }
+            long begin = System.currentTimeMillis();
+            new Indexer(dbHelper, book.getId(), document, resumeFrom).run();
+            Log.d(TAG, "Indexed " + book.getName() + " from " + resumeFrom + " in "
+                    + (System.currentTimeMillis() - begin) + " ms");
+        } finally {
+            document.close();
+        }
+    }
+
+    /**
+     * 单本书的索引过程：边扫描章节边切分，已确定不会再出现新章节的部分才写入
+     */
+    private static class Indexer {
+        private final BooksDatabaseHelper dbHelper;
+        private final int bookId;
+        private final TextDocument document;
+        private final int resumeFrom;        // 在此之前的分段已经写入
+        private final ChapterScanner scanner = new ChapterScanner();
+        private final StringBuilder buffer = new StringBuilder(); // [bufferStart, 已扫描位置) 的文本
+        private int bufferStart = 0;
+        private int chapterNo = 0;
+        private String chapterTitle = "";
+        private final List<TextSegment> segments = new ArrayList<>();
+        private final CancellationSignal signal = new CancellationSignal(); // 书籍已被删除时停止
+
+        Indexer(BooksDatabaseHelper dbHelper, int bookId, TextDocument document, int resumeFrom) {
+            this.dbHelper = dbHelper;
+            this.bookId = bookId;
+            this.document = document;
+            this.resumeFrom = resumeFrom;
+        }
+
+        void run() {
+            try {
+                scanAll();
+            } catch (OperationCanceledException e) {
+                Log.d(TAG, "Book " + bookId + " deleted while indexing");
+            }
+        }
+
+        private void scanAll() {
+            document.scan((chars, length, charStart) -> {
+                int scanned = scanner.getCount();
+                scanner.feed(chars, length, charStart);
+                buffer.append(chars, 0, length);
+                startChapters(scanned);
+                int pending = scanner.getPendingStart();
+                int end = charStart + length;
+                cut(pending >= 0 ? Math.min(pending, end) : end, false);
+                commit(false);
+            }, signal::throwIfCanceled);
+            int scanned = scanner.getCount();
+            scanner.finish();
+            startChapters(scanned);
+            cut(document.length(), true);
+            commit(true);
+        }
+
+        // 新章节之前的文本属于上一章节，全部切分
+        private void startChapters(int from) {
+            for (int i = from; i < scanner.getCount(); i++) {
+                int start = scanner.getStart(i);
+                cut(start, true);
+                if (start > 0 || chapterNo > 0 || !chapterTitle.isEmpty()) {
+                    chapterNo++;
+                }
+                chapterTitle = scanner.getTitle(i);
+            }
+        }
+
+        /**
+         * 把 [bufferStart, end) 切分为分段；chapterEnd 为 false 时只切出完整的段
+         */
+        private void cut(int end, boolean chapterEnd) {
+            while (bufferStart < end) {
+                int length = end - bufferStart;
+                if (length > MAX_SEGMENT_CHARS) {
+                    // 在后半段的最后一个换行处切分，减少被切断的句子
+                    int lineEnd = buffer.lastIndexOf("\n", MAX_SEGMENT_CHARS - 1);
+                    length = lineEnd >= MAX_SEGMENT_CHARS / 2 ? lineEnd + 1 : MAX_SEGMENT_CHARS;
+                } else if (!chapterEnd) {
+                    break;
+                }
+                if (bufferStart + length > resumeFrom) {
+                    String text = tokenize(buffer.subSequence(0, length));
+                    segments.add(new TextSegment(bookId, chapterNo, chapterTitle, bufferStart, text));
+                }
+                buffer.delete(0, length);
+                bufferStart += length;
+            }
+        }
+
+        private void commit(boolean complete) {
+            if (segments.isEmpty() && !complete) {
+                return;
+            }
+            TextIndexState state = new TextIndexState(document.getEncoding(), document.getByteLength(),
+                    document.getLastModified(), bufferStart, complete);
+            if (!dbHelper.appendTextSegments(bookId, segments, state)) {
+                signal.cancel();
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * 写入 FTS 前的分词：非 ASCII 字符与相邻字符之间插入分隔符，单独成词；ASCII 单词保持不变。
+     * 原文中的分隔符替换为空格，保证 {@link #untokenize} 之后字符偏移不变
+     */
+    static String tokenize(CharSequence text) {
+        StringBuilder sb = new StringBuilder(text.length() * 2);
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (i > 0 && (c >= 0x80 || previous >= 0x80)) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(c == SEPARATOR ? ' ' : c);
+            previous = c;
+        }
+        return sb.toString();
+    }
+
+    static String untokenize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != SEPARATOR) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 把用户输入转为 FTS 查询：空格分隔的每个词作为一个短语（中文为逐字短语），各词同时出现。
+     * 没有可搜索的内容时返回 null
+     */
+    static String buildMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            String tokens = tokenize(word.replace('"', ' ')).replace(SEPARATOR, ' ').trim();
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(tokens).append('"');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * 搜索书架（在工作线程调用）：每个命中的分段返回一条结果，定位到分段中第一个词的位置
+     */
+    public static List<Result> search(Context context, String query) {
+        List<Result> results = new ArrayList<>();
+        String match = buildMatch(query);
+        if (match == null) {
+            return results;
+        }
+        String firstWord = query.trim().split("\\s+")[0];
+        List<TextSegment> segments;
+        try {
+            segments = BooksDatabaseHelper.getInstance(context).searchText(match, MAX_RESULTS);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Search failed: " + match, e);
+            return results;
+        }
+        for (TextSegment segment : segments) {
+            String text = untokenize(segment.text);
+            int found = indexOfIgnoreCase(text, firstWord);
+            int local = Math.max(found, 0);
+            results.add(new Result(segment.bookId, segment.bookName, segment.chapterTitle,
+                    segment.start + local, snippet(text, local, found >= 0 ? firstWord.length() : 0)));
+        }
+        return results;
+    }
+
+    private static int indexOfIgnoreCase(String text, String word) {
+        for (int i = 0; i + word.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, word, 0, word.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 匹配所在行中前后各 SNIPPET_CONTEXT 个字符
+    private static String snippet(String text, int start, int length) {
+        int from = start;
+        while (from > 0 && start - from < SNIPPET_CONTEXT && text.charAt(from - 1) != '\n') {
+            from--;
+        }
+        int to = start + length;
+        while (to < text.length() && to - start - length < SNIPPET_CONTEXT && text.charAt(to) != '\n') {
+            to++;
+        }
+        return (from < start ? "…" : "") + text.substring(from, to).trim() + (to > start + length ? "…" : "");
+    }
+}
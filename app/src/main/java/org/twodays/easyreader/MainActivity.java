@@ -1,5 +1,6 @@
 package org.twodays.easyreader;
 
+import android.content.ClipData;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
@@ -17,28 +18,51 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.appcompat.view.ActionMode;
+import androidx.appcompat.widget.SearchView;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import org.twodays.easyreader.engine.DecodedCache;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final int REQUEST_CODE_PICK_FILE = 1;
     private static final String PREFS_NAME = "EasyReaderPrefs";
     private static final String KEY_DARK_MODE = "dark_mode";
+    private static final String KEY_COMPRESS_IMPORT = "compress_import";
+    private static final int PAGE_SIZE = 100;         // 书架每次读取的书籍数
+    private static final int PREFETCH_DISTANCE = 30;  // 距列表末尾不足这么多行时读取下一页
+
+    private static final long REFRESH_DELAY_MS = 500; // 连续处理完多本书时合并刷新
+
+    private static final ExecutorService SHELF_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newSingleThreadExecutor(); // 全文搜索，不阻塞书架读取
 
     private RecyclerView recyclerView;
     private TextView tvEmptyHint;
     private BookAdapter adapter;
     private BooksDatabaseHelper dbHelper;
-    private List<Book> books;
+    private List<ShelfItem> shelf = new ArrayList<>(); // 已读取的书籍（按 ID 倒序）
+    private boolean hasMore = false;                   // 数据库中还有未读取的书籍
+    private boolean pageLoading = false;
+    private int shelfToken = 0;                        // 每次重新读取加一，丢弃过期的结果
+
+    private final Runnable refreshShelf = this::loadBooks;
 
     private ActionMode actionMode;
     private boolean isDarkMode = false;
 
+    private boolean searchMode = false;   // 书架显示的是全文搜索结果
+    private int searchToken = 0;          // 丢弃过期的搜索结果
+    private boolean destroyed = false;    // 已销毁（isDestroyed 需要 API 17），重建后旧实例不再显示后台结果
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -49,16 +73,52 @@ public class MainActivity extends AppCompatActivity {
         isDarkMode = prefs.getBoolean(KEY_DARK_MODE, false);
         applyDarkMode(isDarkMode);
 
-        dbHelper = new BooksDatabaseHelper(this);
+        dbHelper = BooksDatabaseHelper.getInstance(this);
 
         recyclerView = findViewById(R.id.recycler_view);
         tvEmptyHint = findViewById(R.id.tv_empty_hint);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        setupAdapter();
+        // 滚动接近末尾时读取下一页
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView view, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= shelf.size() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
 
         FloatingActionButton fabAdd = findViewById(R.id.fab_add);
         fabAdd.setOnClickListener(v -> openFileChooser());
 
         loadBooks();
+        // 后台补建全文索引（从上次中断的位置继续）
+        LibraryIndex.schedule(this);
+        // 处理完的书籍在书架上显示大小和章节数
+        BookImporter.setListener(bookId -> {
+            recyclerView.removeCallbacks(refreshShelf);
+            recyclerView.postDelayed(refreshShelf, REFRESH_DELAY_MS);
+        });
+        BookImporter.schedulePending(this);
+    }
+
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        // 从阅读界面返回时刷新阅读进度（只有变化的行重新绑定）
+        if (!searchMode) {
+            loadBooks();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        BookImporter.setListener(null);
+        recyclerView.removeCallbacks(refreshShelf);
     }
 
     private void applyDarkMode(boolean dark) {
@@ -69,6 +129,11 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // 导入时是否把书籍压缩保存到应用内（之后不再读取原文件）
+    private boolean isCompressImport() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getBoolean(KEY_COMPRESS_IMPORT, false);
+    }
+
     private void saveDarkMode(boolean dark) {
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         prefs.edit().putBoolean(KEY_DARK_MODE, dark).apply();
@@ -79,9 +144,81 @@ public class MainActivity extends AppCompatActivity {
         getMenuInflater().inflate(R.menu.menu_main, menu);
         MenuItem darkModeItem = menu.findItem(R.id.action_dark_mode);
         darkModeItem.setChecked(isDarkMode);
+        menu.findItem(R.id.action_compress_import).setChecked(isCompressImport());
+        setupSearch(menu.findItem(R.id.action_search));
         return true;
     }
 
+    /**
+     * 书架搜索：展开搜索框进入搜索模式，提交后列表显示全文搜索结果，收起后恢复书架
+     */
+    private void setupSearch(MenuItem searchItem) {
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint("搜索所有书籍的内容");
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchLibrary(query);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                return false;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                searchMode = true;
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                searchMode = false;
+                searchToken++;
+                loadBooks();
+                return true;
+            }
+        });
+    }
+
+    private void searchLibrary(String query) {
+        int token = ++searchToken;
+        SEARCH_EXECUTOR.execute(() -> {
+            List<LibraryIndex.Result> results = LibraryIndex.search(getApplicationContext(), query);
+            runOnUiThread(() -> {
+                if (token == searchToken && searchMode && !destroyed) {
+                    showSearchResults(results);
+                }
+            });
+        });
+    }
+
+    private void showSearchResults(List<LibraryIndex.Result> results) {
+        if (results.isEmpty()) {
+            tvEmptyHint.setText("没有找到（尚未建立索引的书籍不会出现在结果中）");
+            tvEmptyHint.setVisibility(View.VISIBLE);
+            recyclerView.setVisibility(View.GONE);
+            return;
+        }
+        tvEmptyHint.setVisibility(View.GONE);
+        recyclerView.setVisibility(View.VISIBLE);
+        recyclerView.setAdapter(new SearchResultAdapter(results, result -> {
+            // 书籍可能不在已读取的页中，按主键查询
+            Book book = dbHelper.getBook(result.bookId);
+            if (book != null) {
+                Intent intent = new Intent(MainActivity.this, ReaderActivity.class);
+                intent.setData(Uri.parse(book.getUri()));
+                intent.putExtra("book_id", book.getId());
+                intent.putExtra(ReaderActivity.EXTRA_OFFSET, result.offset);
+                startActivity(intent);
+            }
+        }));
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == R.id.action_dark_mode) {
@@ -91,6 +228,14 @@ public class MainActivity extends AppCompatActivity {
             applyDarkMode(isDarkMode);
             recreate(); // 重新创建活动以应用新主题
             return true;
+        } else if (item.getItemId() == R.id.action_compress_import) {
+            boolean compress = !isCompressImport();
+            item.setChecked(compress);
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putBoolean(KEY_COMPRESS_IMPORT, compress).apply();
+            return true;
+        } else if (item.getItemId() == R.id.action_diagnostics) {
+            startActivity(new Intent(this, DiagnosticsActivity.class));
+            return true;
         } else if (item.getItemId() == R.id.action_about) {
             Intent intent = new Intent(this, AboutActivity.class);
             startActivity(intent);
@@ -99,17 +244,8 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    private void loadBooks() {
-        books = dbHelper.getAllBooks();
-        if (books.isEmpty()) {
-            tvEmptyHint.setVisibility(View.VISIBLE);
-            recyclerView.setVisibility(View.GONE);
-        } else {
-            tvEmptyHint.setVisibility(View.GONE);
-            recyclerView.setVisibility(View.VISIBLE);
-        }
-
-        adapter = new BookAdapter(books,
+    private void setupAdapter() {
+        adapter = new BookAdapter(
                 (book, position) -> {
                     Intent intent = new Intent(MainActivity.this, ReaderActivity.class);
                     intent.setData(Uri.parse(book.getUri()));
@@ -134,8 +270,69 @@ public class MainActivity extends AppCompatActivity {
                 actionMode.setTitle(count + " 项已选择");
             }
         });
+    }
+
+    /**
+     * 在后台重新读取书架（至少一页，已经翻过的页一起刷新），由 DiffUtil 计算变化的行
+     */
+    private void loadBooks() {
+        int token = ++shelfToken;
+        int limit = Math.max(PAGE_SIZE, shelf.size());
+        pageLoading = true;
+        SHELF_EXECUTOR.execute(() -> {
+            List<ShelfItem> items = BookStateWriter.getInstance(this).getShelfPage(Integer.MAX_VALUE, limit);
+            runOnUiThread(() -> {
+                if (token != shelfToken || destroyed) {
+                    return;
+                }
+                pageLoading = false;
+                hasMore = items.size() == limit;
+                showShelf(items);
+            });
+        });
+    }
 
-        recyclerView.setAdapter(adapter);
+    // 读取已显示的最后一本之后的一页
+    private void loadNextPage() {
+        if (pageLoading || !hasMore || shelf.isEmpty()) {
+            return;
+        }
+        int token = shelfToken;
+        int beforeId = shelf.get(shelf.size() - 1).id;
+        pageLoading = true;
+        SHELF_EXECUTOR.execute(() -> {
+            List<ShelfItem> items = BookStateWriter.getInstance(this).getShelfPage(beforeId, PAGE_SIZE);
+            runOnUiThread(() -> {
+                if (token != shelfToken || destroyed) {
+                    return;
+                }
+                pageLoading = false;
+                hasMore = items.size() == PAGE_SIZE;
+                List<ShelfItem> merged = new ArrayList<>(shelf.size() + items.size());
+                merged.addAll(shelf);
+                merged.addAll(items);
+                showShelf(merged);
+            });
+        });
+    }
+
+    private void showShelf(List<ShelfItem> items) {
+        shelf = items;
+        if (searchMode) {
+            return; // 列表正在显示搜索结果，收起搜索框时再显示
+        }
+        if (items.isEmpty()) {
+            tvEmptyHint.setText("点击右下角加号添加电子书");
+            tvEmptyHint.setVisibility(View.VISIBLE);
+            recyclerView.setVisibility(View.GONE);
+        } else {
+            tvEmptyHint.setVisibility(View.GONE);
+            recyclerView.setVisibility(View.VISIBLE);
+        }
+        if (recyclerView.getAdapter() != adapter) {
+            recyclerView.setAdapter(adapter);
+        }
+        adapter.submitList(items);
     }
 
     private void openFileChooser() {
@@ -160,6 +357,7 @@ public class MainActivity extends AppCompatActivity {
         }
         intent.setType("text/plain");
         intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         try {
             startActivityForResult(Intent.createChooser(intent, getString(R.string.choose_file)), REQUEST_CODE_PICK_FILE);
@@ -172,11 +370,14 @@ public class MainActivity extends AppCompatActivity {
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == REQUEST_CODE_PICK_FILE && resultCode == RESULT_OK) {
-            if (data != null && data.getData() != null) {
-                Uri uri = data.getData();
-
-                // 尝试获取持久化权限（仅对系统文件选择器有效，自定义选择器会通过 FileProvider 授权）
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            List<Uri> uris = getResultUris(data);
+            if (uris.isEmpty()) {
+                Toast.makeText(this, R.string.file_read_error, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            // 尝试获取持久化权限（仅对系统文件选择器有效，自定义选择器会通过 FileProvider 授权）
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                for (Uri uri : uris) {
                     try {
                         getContentResolver().takePersistableUriPermission(uri,
                                 Intent.FLAG_GRANT_READ_URI_PERMISSION);
@@ -184,16 +385,42 @@ public class MainActivity extends AppCompatActivity {
                         // 忽略，可能是 FileProvider 返回的 URI 不支持持久化
                     }
                 }
+            }
 
-                String rawName = uri.getLastPathSegment();
-                String fileName = cleanFileName(rawName);
+            // 先在一个事务中全部加入书架，编码检测和章节扫描由 BookImporter 在后台完成
+            List<ImportedBook> imported = new ArrayList<>(uris.size());
+            for (Uri uri : uris) {
+                imported.add(new ImportedBook(cleanFileName(uri.getLastPathSegment()), uri.toString(),
+                        "UTF-8", BooksDatabaseHelper.CONFIDENCE_UNKNOWN));
+            }
+            boolean compress = isCompressImport();
+            SHELF_EXECUTOR.execute(() -> {
+                long[] ids = dbHelper.addBooks(imported);
+                BookImporter.enqueue(getApplicationContext(), ids, compress);
+            });
+            loadBooks();
+        }
+    }
 
-                dbHelper.addBook(fileName, uri.toString());
-                loadBooks();
-            } else {
-                Toast.makeText(this, R.string.file_read_error, Toast.LENGTH_SHORT).show();
+    // 选择结果中的全部文件（多选时在 ClipData 中）
+    private static List<Uri> getResultUris(@Nullable Intent data) {
+        List<Uri> uris = new ArrayList<>();
+        if (data == null) {
+            return uris;
+        }
+        ClipData clipData = data.getClipData();
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                Uri uri = clipData.getItemAt(i).getUri();
+                if (uri != null) {
+                    uris.add(uri);
+                }
             }
         }
+        if (uris.isEmpty() && data.getData() != null) {
+            uris.add(data.getData());
+        }
+        return uris;
     }
 
     private String cleanFileName(String raw) {
@@ -235,11 +462,29 @@ public class MainActivity extends AppCompatActivity {
         public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
             if (item.getItemId() == R.id.action_delete) {
                 SparseBooleanArray selected = adapter.getSelectedItems();
-                for (int i = selected.size() - 1; i >= 0; i--) {
-                    int position = selected.keyAt(i);
-                    Book book = books.get(position);
-                    dbHelper.deleteBook(book.getId());
+                int[] ids = new int[selected.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = selected.keyAt(i);
+                    OpenBookCache.remove(ids[i]);
                 }
+                // 一个事务删除全部选中的书，书架在删除完成后刷新（同一线程，顺序执行）
+                SHELF_EXECUTOR.execute(() -> {
+                    List<String> uris = new ArrayList<>(ids.length);
+                    for (int id : ids) {
+                        Book book = dbHelper.getBook(id);
+                        if (book != null) {
+                            uris.add(book.getUri());
+                        }
+                    }
+                    dbHelper.deleteBooks(ids);
+                    for (int id : ids) {
+                        BookSearcher.deleteIndex(getApplicationContext(), id);
+                        BookStorage.delete(getApplicationContext(), id);
+                    }
+                    for (String uri : uris) {
+                        DecodedCache.delete(DocumentOpener.getDecodedCacheDir(getApplicationContext()), uri);
+                    }
+                });
                 loadBooks();
                 mode.finish();
                 return true;
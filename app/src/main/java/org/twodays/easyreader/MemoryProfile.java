@@ -0,0 +1,61 @@
+package org.twodays.easyreader;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import androidx.core.app.ActivityManagerCompat;
+
+import org.twodays.easyreader.engine.BookScanner;
+
+/**
+ * 内存配置：低内存设备（{@link ActivityManager#isLowRamDevice()}）和手表上自动使用低内存配置——
+ * 较小的解码窗口、较小的页面（分屏时一次排版的文本更少）、较小的页面缓存和更少的预取。
+ * <p>
+ * 内存紧张时的释放顺序见 ReaderActivity.onTrimMemory。
+ */
+public final class MemoryProfile {
+
+    private static final String TAG = "MemoryProfile";
+
+    private static MemoryProfile instance;
+
+    final boolean lowMemory;
+    final int windowBlocks;      // 解码窗口中保留的块数（每块约 64KB 原文）
+    final int maxPageChars;      // 单页最大字符数
+    final int pageCacheBytes;    // 页面缓存上限
+    final int prefetchAhead;     // 阅读方向上预取的屏数
+    final int prefetchBehind;    // 反方向保留的屏数
+    final int retainedBooks;     // 关闭后仍保留在内存中的书籍数（见 OpenBookCache）
+
+    public static synchronized MemoryProfile getInstance(Context context) {
+        if (instance == null) {
+            instance = new MemoryProfile(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MemoryProfile(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        lowMemory = ActivityManagerCompat.isLowRamDevice(am)
+                || context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_WATCH);
+        int memoryClass = am.getMemoryClass() * 1024 * 1024;
+        if (lowMemory) {
+            windowBlocks = 2;
+            maxPageChars = 5000;
+            pageCacheBytes = memoryClass / 128;
+            prefetchAhead = 1;
+            prefetchBehind = 0;
+            retainedBooks = 1;
+        } else {
+            windowBlocks = 6;
+            maxPageChars = BookScanner.MAX_PAGE_CHARS;
+            pageCacheBytes = memoryClass / 32; // 应用可用内存的 1/32
+            prefetchAhead = 3;
+            prefetchBehind = 1;
+            retainedBooks = 2;
+        }
+        Log.d(TAG, "lowMemory=" + lowMemory + ", memoryClass=" + am.getMemoryClass() + " MB");
+    }
+}
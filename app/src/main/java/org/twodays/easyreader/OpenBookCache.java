@@ -0,0 +1,130 @@
+package org.twodays.easyreader;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.net.Uri;
+import android.util.Log;
+
+import org.twodays.easyreader.engine.PageIndex;
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 进程内保留的已加载书籍：阅读界面销毁时（旋转屏幕、切换深色模式重建、退出阅读）把加载完成的文档
+ * 和页面/章节索引交给这里，再次打开同一本书、同一编码时直接取回，不再映射文件和读取索引缓存。
+ * <p>
+ * 取回时从缓存中移除，同一时间只有一个使用者；文件已被替换（大小或修改时间不同）时不再使用。只保留最近的几本（见 {@link MemoryProfile}），
+ * 被挤出或内存紧张时关闭文档。只在主线程调用。
+ */
+public final class OpenBookCache {
+
+    private static final String TAG = "OpenBookCache";
+
+    static final class Entry {
+        final TextDocument document;
+        final PageIndex pageIndex;
+
+        private Entry(TextDocument document, PageIndex pageIndex) {
+            this.document = document;
+            this.pageIndex = pageIndex;
+        }
+    }
+
+    // 按使用顺序排列，最早的在前
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(4, 0.75f, true);
+    private static boolean callbacksRegistered = false;
+
+    private OpenBookCache() {
+    }
+
+    /**
+     * 取回书籍；encoding 为 null（自动检测）时接受任意编码，否则编码必须相同。
+     * 编码不同或文件已变化时关闭旧文档，返回 null
+     */
+    static Entry take(Context context, int bookId, Uri uri, String encoding) {
+        Entry entry = entries.remove(key(bookId, uri));
+        if (entry == null) {
+            return null;
+        }
+        if (encoding != null && !encoding.equals(entry.document.getEncoding())) {
+            entry.document.close();
+            return null;
+        }
+        if (!DocumentOpener.isUnchanged(context, uri, entry.document)) {
+            Log.d(TAG, "File changed since retained: " + uri);
+            entry.document.close();
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 保留加载完成的书籍，之后由缓存负责关闭文档
+     */
+    static void put(Context context, int bookId, Uri uri, TextDocument document, PageIndex pageIndex) {
+        registerCallbacks(context);
+        Entry old = entries.put(key(bookId, uri), new Entry(document, pageIndex));
+        if (old != null && old.document != document) {
+            old.document.close();
+        }
+        int max = MemoryProfile.getInstance(context).retainedBooks;
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > max && it.hasNext()) {
+            it.next().document.close();
+            it.remove();
+        }
+    }
+
+    /**
+     * 书籍被删除时关闭保留的文档
+     */
+    static void remove(int bookId) {
+        Entry entry = entries.remove(key(bookId, null));
+        if (entry != null) {
+            entry.document.close();
+        }
+    }
+
+    static void clear() {
+        for (Entry entry : entries.values()) {
+            entry.document.close();
+        }
+        entries.clear();
+    }
+
+    private static String key(int bookId, Uri uri) {
+        return bookId != -1 ? "book:" + bookId : String.valueOf(uri);
+    }
+
+    /**
+     * 内存紧张时最先释放（应用只是进入后台时保留，回来后仍可直接打开）
+     */
+    private static void registerCallbacks(Context context) {
+        if (callbacksRegistered) {
+            return;
+        }
+        callbacksRegistered = true;
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level != TRIM_MEMORY_UI_HIDDEN && !entries.isEmpty()) {
+                    Log.d(TAG, "Release " + entries.size() + " retained books, level " + level);
+                    clear();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+        });
+    }
+}
@@ -0,0 +1,94 @@
+package org.twodays.easyreader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 已准备页面的 LRU 缓存：按 (字号, 屏起点) 存放 {@link PreparedPage}，总大小按字节估算并限制。
+ * 阅读方向上的后几屏在后台预先准备，翻页时只需一次查找。
+ * <p>
+ * 颜色由 TextView 设置、不在准备结果中，所以深色模式不影响缓存。只在主线程调用。
+ */
+public class PageCache {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final LruCache<Long, PreparedPage> cache;
+    private final Set<Long> pending = new HashSet<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile int generation = 0;         // clear() 之后丢弃尚未完成的预取
+
+    public PageCache(int maxBytes) {
+        cache = new LruCache<Long, PreparedPage>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, PreparedPage page) {
+                return page.getByteSize();
+            }
+        };
+    }
+
+    /**
+     * 查找 [start, end) 的已准备页面，没有时返回 null
+     */
+    public PreparedPage get(int fontSize, int start, int end) {
+        PreparedPage page = cache.get(key(fontSize, start));
+        return page != null && page.end == end ? page : null;
+    }
+
+    public void put(int fontSize, PreparedPage page) {
+        cache.put(key(fontSize, page.start), page);
+    }
+
+    /**
+     * 在后台准备 [start, end) 并放入缓存；已缓存或正在准备时忽略
+     */
+    public void prefetch(TextDocument document, int start, int end, int[] titleRanges,
+                         PrecomputedTextCompat.Params params, int fontSize) {
+        Long key = key(fontSize, start);
+        if (get(fontSize, start, end) != null || pending.contains(key)) {
+            return;
+        }
+        pending.add(key);
+        int requested = generation;
+        EXECUTOR.execute(() -> {
+            PreparedPage page = requested == generation
+                    ? PreparedPage.prepare(document, start, end, titleRanges, params) : null;
+            mainHandler.post(() -> {
+                if (requested != generation) {
+                    return;
+                }
+                pending.remove(key);
+                if (page != null) {
+                    cache.put(key, page);
+                }
+            });
+        });
+    }
+
+    /**
+     * 清空缓存（字号或可视区域变化、内存紧张时）
+     */
+    public void clear() {
+        generation++;
+        pending.clear();
+        cache.evictAll();
+    }
+
+    public int sizeInBytes() {
+        return cache.size();
+    }
+
+    private static Long key(int fontSize, int start) {
+        return ((long) fontSize << 32) | (start & 0xFFFFFFFFL);
+    }
+}
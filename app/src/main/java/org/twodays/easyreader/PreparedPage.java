@@ -0,0 +1,67 @@
+package org.twodays.easyreader;
+
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import androidx.core.os.TraceCompat;
+import androidx.core.text.PrecomputedTextCompat;
+
+import org.twodays.easyreader.engine.TextDocument;
+
+/**
+ * 准备好显示的一屏：文本片段 + 章节标题样式 + 预先测量的排版结果。
+ * <p>
+ * 基础字号和颜色由 TextView 本身设置，这里只保留标题样式，
+ * 所以切换深色模式不需要重新生成或测量文本。
+ */
+public class PreparedPage {
+
+    // 估算每个字符占用的内存：文本本身 2 字节，加上预先测量的字宽和断行信息
+    private static final int BYTES_PER_CHAR = 12;
+
+    final int start;
+    final int end;
+    final PrecomputedTextCompat text;
+
+    private PreparedPage(int start, int end, PrecomputedTextCompat text) {
+        this.start = start;
+        this.end = end;
+        this.text = text;
+    }
+
+    /**
+     * 估算占用的字节数（用于限制缓存大小）
+     */
+    int getByteSize() {
+        return (end - start) * BYTES_PER_CHAR + 256;
+    }
+
+    /**
+     * 在工作线程生成并测量 [start, end) 的文本；titleRanges 为页内标题范围（相对 start 的起止位置成对排列）
+     */
+    static PreparedPage prepare(TextDocument document, int start, int end, int[] titleRanges,
+                                PrecomputedTextCompat.Params params) {
+        TraceCompat.beginSection("PreparedPage.prepare");
+        try {
+            SpannableString spannable = new SpannableString(document.getText(start, end));
+            for (int i = 0; i + 1 < titleRanges.length; i += 2) {
+                markTitle(spannable, titleRanges[i], titleRanges[i + 1]);
+            }
+            return new PreparedPage(start, end, PrecomputedTextCompat.create(spannable, params));
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * 章节标题样式：加粗 + 放大（基础字体*1.2）。
+     * 每个标题使用新的样式对象：同一个对象再次 setSpan 只会移动到新位置，一页中有多个标题时只有最后一个生效
+     */
+    static void markTitle(Spannable spannable, int start, int end) {
+        spannable.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        spannable.setSpan(new RelativeSizeSpan(1.2f), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+}
@@ -2,22 +2,27 @@ package org.twodays.easyreader;
 
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
+import android.content.ComponentCallbacks2;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.style.AbsoluteSizeSpan;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.StyleSpan;
+import android.text.style.BackgroundColorSpan;
 import android.util.Log;
+import android.util.TypedValue;
 import android.view.GestureDetector;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -25,23 +30,32 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
+import androidx.core.os.TraceCompat;
+import androidx.core.text.PrecomputedTextCompat;
 import androidx.core.widget.NestedScrollView;
+import androidx.core.widget.TextViewCompat;
+
+import org.twodays.easyreader.engine.Chapter;
+import org.twodays.easyreader.engine.PageIndex;
+import org.twodays.easyreader.engine.TextDocument;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ReaderActivity extends AppCompatActivity {
 
     private static final String TAG = "ReaderActivity";
-    private static final int MAX_PAGE_CHARS = 20000; // 单页最大字符数（当章节过长时拆分）
+
+    // 打开后跳转到的字符偏移（书架搜索结果），代替上次的阅读位置
+    public static final String EXTRA_OFFSET = "offset";
+
+    // 在后台生成页面文本并预先测量排版
+    private static final ExecutorService PAGE_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final int HIGHLIGHT_COLOR = 0x80FFEB3B; // 搜索结果高亮（半透明黄色）
 
     private NestedScrollView scrollView;
     private TextView tvContent;
@@ -50,13 +64,30 @@ public class ReaderActivity extends AppCompatActivity {
     private TextView tvPageInfo, tvBookTitle;
     private LinearLayout topControl, bottomControl;
     private ImageButton btnClose, btnPrev, btnNext;
-    private Button btnToc, btnEncoding;
-
-    private String fullText = "";
-    private List<Page> pages = new ArrayList<>();          // 页面列表（每个页面对应一段文本）
-    private List<Chapter> chapters = new ArrayList<>();    // 章节列表（按出现顺序）
-    private int currentPageIndex = 0;
-    private int totalPages = 0;
+    private Button btnToc, btnEncoding, btnSearch;
+    private ProgressBar loadProgress;
+
+    private TextDocument document;                         // 当前书籍（按块解码，不再整本读入内存）
+    private BookLoader loader;                             // 正在进行的后台加载
+    private boolean positionRestored = false;              // 是否已恢复上次阅读位置
+    private PageIndex pageIndex = new PageIndex();         // 页面和章节起点（二分查找）
+    private int currentPageIndex = 0;                      // readingOffset 所在的页面
+    private ScreenPaginator paginator;                     // 当前字号和可视区域下的屏幕分页
+    private int readingOffset = 0;                         // 当前屏的起点（全文字符偏移）
+    private boolean showLastScreen = false;                // 向前翻到上一页面时显示其最后一屏
+    private boolean showingScreen = false;                 // 当前显示的是已分屏的一屏（而非整个页面）
+    private int displayToken = 0;                          // 每次请求显示加一，丢弃过期的准备结果
+    private PageCache pageCache;                           // 已准备好的屏（当前屏及阅读方向上的后几屏）
+    private MemoryProfile memoryProfile;                   // 低内存设备使用较小的缓存和预取
+    private boolean readingForward = true;                 // 最近一次翻屏的方向，决定预取方向
+    private PreparedPage currentPrepared;                  // 正在显示的一屏
+    private boolean loadFinished = false;                  // 全书已扫描完成（可以搜索）
+    private Diagnostics.OpenRecord openRecord;             // 本次加载的诊断记录
+    private boolean destroyed = false;                     // 已销毁（isDestroyed 需要 API 17），丢弃之后到达的后台结果
+
+    private BookSearcher searcher;                         // 书内搜索（加载完成后创建）
+    private String searchQuery = "";                       // 最近一次搜索的文字
+    private final List<BookSearcher.Hit> searchHits = new ArrayList<>(); // 按位置递增
 
     private int currentFontSize = 16;                      // 当前字体大小（从数据库读取）
     private boolean isDarkMode = false;
@@ -67,14 +98,17 @@ public class ReaderActivity extends AppCompatActivity {
     private String currentEncoding = "UTF-8";
     private Uri bookUri;
 
-    // 上次阅读的页码和滚动偏移
+    // 上次的阅读位置：文件中的字节偏移；没有记录（旧版本数据）时使用页码和页内字符偏移
+    private long savedPosition = -1;
     private int savedPage = 0;
     private int savedScrollOffset = 0;
+    private int jumpOffset = -1;                           // EXTRA_OFFSET，-1 表示恢复上次位置
+    private long resumedAt = 0;                            // 本次进入前台的时间（elapsedRealtime），用于统计阅读时长
 
     private GestureDetector gestureDetector;
 
-    // 支持的编码列表
-    private final String[] encodings = {"UTF-8", "GBK", "GB2312", "BIG5", "ISO-8859-1"};
+    // 支持的编码列表。GB2312 按 GBK（超集）解码，与自动检测的结果一致，索引和缓存才能按编码名匹配
+    private final String[] encodings = {"UTF-8", "GBK", "BIG5", "UTF-16LE", "UTF-16BE", "ISO-8859-1"};
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -87,6 +121,9 @@ public class ReaderActivity extends AppCompatActivity {
         }
 
         initViews();
+        ScreenPaginator.configureTextView(tvContent);
+        memoryProfile = MemoryProfile.getInstance(this);
+        pageCache = new PageCache(memoryProfile.pageCacheBytes);
 
         // 读取全局深色模式设置，设置开关初始状态
         SharedPreferences prefs = getSharedPreferences("EasyReaderPrefs", MODE_PRIVATE);
@@ -105,18 +142,20 @@ public class ReaderActivity extends AppCompatActivity {
 
         // 获取书籍信息（包含字体大小）
         bookId = getIntent().getIntExtra("book_id", -1);
+        jumpOffset = getIntent().getIntExtra(EXTRA_OFFSET, -1);
+        boolean detectEncoding = true; // 编码未知（未检测过或不在书架中）时打开时自动检测
         if (bookId != -1) {
-            BooksDatabaseHelper dbHelper = new BooksDatabaseHelper(this);
-            Book book = dbHelper.getBook(bookId);
+            Book book = BookStateWriter.getInstance(this).getBook(bookId); // 包含尚未写入数据库的修改
             if (book != null) {
+                savedPosition = book.getReadPosition();
                 savedPage = book.getLastPage();
                 savedScrollOffset = book.getScrollOffset();
                 bookName = book.getName();
-                currentEncoding = book.getEncoding();
+                currentEncoding = "GB2312".equalsIgnoreCase(book.getEncoding()) ? "GBK" : book.getEncoding(); // 旧版本可选择 GB2312
                 currentFontSize = book.getFontSize(); // 读取字号
-                Log.d(TAG, "Loaded: page=" + savedPage + ", offset=" + savedScrollOffset + ", encoding=" + currentEncoding + ", fontSize=" + currentFontSize);
+                detectEncoding = book.getEncodingConfidence() == BooksDatabaseHelper.CONFIDENCE_UNKNOWN;
+                Log.d(TAG, "Loaded: position=" + savedPosition + ", encoding=" + currentEncoding + ", fontSize=" + currentFontSize);
             }
-            dbHelper.close();
         }
         if (bookName.isEmpty()) {
             bookName = bookUri.getLastPathSegment();
@@ -126,21 +165,25 @@ public class ReaderActivity extends AppCompatActivity {
 
         // 设置 SeekBar 初始值
         seekBarFont.setProgress(currentFontSize - 10); // 因为进度0对应10
+        // 基础字号和颜色直接设置在 TextView 上
+        tvContent.setTextSize(TypedValue.COMPLEX_UNIT_DIP, currentFontSize);
+        applyColors();
 
         // 使用保存的编码加载文件
-        loadFileWithEncoding(bookUri, currentEncoding);
+        loadFileWithEncoding(bookUri, detectEncoding ? null : currentEncoding);
 
         // 字体调节
         seekBarFont.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 currentFontSize = progress + 10;
-                applyTextStyle();
-                // 保存字号到数据库
+                tvContent.setTextSize(TypedValue.COMPLEX_UNIT_DIP, currentFontSize);
+                // 字号变化：丢弃旧的分屏结果，只重新计算当前页面
+                rebuildPaginator();
+                displayCurrentPage();
+                // 保存字号（拖动过程中的多次修改合并为一次写入）
                 if (bookId != -1) {
-                    BooksDatabaseHelper dbHelper = new BooksDatabaseHelper(ReaderActivity.this);
-                    dbHelper.updateFontSize(bookId, currentFontSize);
-                    dbHelper.close();
+                    BookStateWriter.getInstance(ReaderActivity.this).setFontSize(bookId, currentFontSize);
                 }
             }
             @Override public void onStartTrackingTouch(SeekBar seekBar) {}
@@ -150,25 +193,24 @@ public class ReaderActivity extends AppCompatActivity {
         // 深色模式切换（仅影响当前阅读界面）
         switchDarkMode.setOnCheckedChangeListener((buttonView, isChecked) -> {
             isDarkMode = isChecked;
-            applyTextStyle();
+            applyColors(); // 只改颜色，不重新生成或测量文本
         });
 
         btnClose.setOnClickListener(v -> finish());
         btnToc.setOnClickListener(v -> showChapterDialog());
         btnEncoding.setOnClickListener(v -> showEncodingDialog());
+        btnSearch.setOnClickListener(v -> showSearchDialog());
 
-        btnPrev.setOnClickListener(v -> {
-            if (currentPageIndex > 0) {
-                currentPageIndex--;
-                displayCurrentPage();
-                updateProgressBar();
-            }
-        });
-        btnNext.setOnClickListener(v -> {
-            if (currentPageIndex < totalPages - 1) {
-                currentPageIndex++;
-                displayCurrentPage();
-                updateProgressBar();
+        btnPrev.setOnClickListener(v -> previousScreen());
+        btnNext.setOnClickListener(v -> nextScreen());
+
+        // 可视区域变化（首次布局、旋转、分屏模式）后重新分屏
+        scrollView.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> {
+            if (right - left != oldRight - oldLeft || bottom - top != oldBottom - oldTop) {
+                v.post(() -> {
+                    rebuildPaginator();
+                    displayCurrentPage();
+                });
             }
         });
 
@@ -177,13 +219,10 @@ public class ReaderActivity extends AppCompatActivity {
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 int percent = progress / 10;
                 tvPageInfo.setText(percent + "%");
-                if (fromUser && totalPages > 0) {
-                    int targetPage = (int) ((float) progress / 1000 * totalPages);
-                    if (targetPage >= totalPages) targetPage = totalPages - 1;
-                    if (targetPage != currentPageIndex) {
-                        currentPageIndex = targetPage;
-                        displayCurrentPage();
-                    }
+                if (fromUser && pageIndex.getPageCount() > 0) {
+                    // 进度对应字符偏移，二分查找所在页面和屏
+                    int offset = (int) ((long) progress * pageIndex.getPagesEnd() / 1000);
+                    moveTo(offset, false);
                 }
             }
             @Override public void onStartTrackingTouch(SeekBar seekBar) {}
@@ -192,7 +231,7 @@ public class ReaderActivity extends AppCompatActivity {
     }
 
     /**
-     * 音量键处理：控制栏可见时调节音量，隐藏时滚动屏幕
+     * 音量键处理：控制栏可见时调节音量，隐藏时滚动屏幕，滚动到头后翻屏
      */
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
@@ -202,10 +241,18 @@ public class ReaderActivity extends AppCompatActivity {
         }
         // 控制栏隐藏时，音量键用于滚动
         if (keyCode == KeyEvent.KEYCODE_VOLUME_UP) {
-            scrollView.smoothScrollBy(0, -scrollView.getHeight() / 2);
+            if (scrollView.canScrollVertically(-1)) {
+                scrollView.smoothScrollBy(0, -scrollView.getHeight() / 2);
+            } else {
+                previousScreen();
+            }
             return true;
         } else if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) {
-            scrollView.smoothScrollBy(0, scrollView.getHeight() / 2);
+            if (scrollView.canScrollVertically(1)) {
+                scrollView.smoothScrollBy(0, scrollView.getHeight() / 2);
+            } else {
+                nextScreen();
+            }
             return true;
         }
         return super.onKeyDown(keyCode, event);
@@ -226,6 +273,8 @@ public class ReaderActivity extends AppCompatActivity {
         btnNext = findViewById(R.id.btn_next);
         btnToc = findViewById(R.id.btn_toc);
         btnEncoding = findViewById(R.id.btn_encoding);
+        btnSearch = findViewById(R.id.btn_search);
+        loadProgress = findViewById(R.id.load_progress);
     }
 
     private void setupGestureDetector() {
@@ -235,6 +284,20 @@ public class ReaderActivity extends AppCompatActivity {
                 toggleControls();
                 return true;
             }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                // 横向滑动翻屏
+                if (e1 == null || Math.abs(velocityX) <= Math.abs(velocityY)) {
+                    return false;
+                }
+                if (velocityX < 0) {
+                    nextScreen();
+                } else {
+                    previousScreen();
+                }
+                return true;
+            }
         });
         scrollView.setOnTouchListener((v, event) -> {
             gestureDetector.onTouchEvent(event);
@@ -252,37 +315,270 @@ public class ReaderActivity extends AppCompatActivity {
     }
 
     private void updateProgressBar() {
-        if (totalPages == 0) return;
-        int progress = (int) ((float) currentPageIndex / totalPages * 1000);
+        if (pageIndex.getPageCount() == 0) return;
+        int progress = (int) ((long) readingOffset * 1000 / Math.max(1, pageIndex.getPagesEnd()));
         progressSeekBar.setProgress(progress);
         tvPageInfo.setText((progress / 10) + "%");
     }
 
     /**
-     * 使用指定编码加载文件，并构建页面
+     * 使用指定编码加载文件：后台流水线逐块扫描，保存的页面一旦可用就立即显示。
+     * encoding 为 null 时由后台根据文件内容检测编码。
      */
     private void loadFileWithEncoding(Uri uri, String encoding) {
-        try {
-            fullText = readTextFromUri(uri, encoding);
+        cancelLoading();
+        if (document != null) {
+            openRecord.updateCounts(document);
+            document.close();
+            document = null;
+        }
+        cancelPaginator();
+        cancelSearch();
+        pageIndex.clear();
+        currentPageIndex = 0;
+        readingOffset = 0;
+        positionRestored = false;
+        loadFinished = false;
+        currentPrepared = null;
+        if (encoding != null) {
             currentEncoding = encoding;
-            parseChapters(fullText);
-            buildPages(); // 根据章节构建页面
-            totalPages = pages.size();
+        }
+        displayToken++; // 丢弃尚未显示的旧页面
+        tvContent.setText("");
+        loadProgress.setProgress(0);
+        loadProgress.setVisibility(View.VISIBLE);
+
+        openRecord = Diagnostics.startOpen(bookName, encoding != null ? encoding : "auto");
+        OpenBookCache.Entry retained = OpenBookCache.take(this, bookId, uri, encoding);
+        if (retained != null) {
+            attachRetained(retained);
+            return;
+        }
+        loader = new BookLoader(this, bookId, uri, encoding, openRecord, new BookLoader.Callback() {
+            @Override
+            public void onOpened(TextDocument doc) {
+                document = doc;
+                currentEncoding = doc.getEncoding(); // 自动检测时为检测结果
+                rebuildPaginator();
+            }
 
-            // 恢复上次阅读位置
-            if (savedPage >= 0 && savedPage < totalPages) {
-                currentPageIndex = savedPage;
-            } else {
-                currentPageIndex = 0;
+            @Override
+            public void onProgress(List<Chapter> newChapters, int[] newPageStarts, int pagesEnd, int progress) {
+                pageIndex.addChapters(newChapters);
+                pageIndex.addPages(newPageStarts, pagesEnd);
+                loadProgress.setProgress(progress);
+                // 阅读位置所在的页面一旦可用就显示，不等待后面的页面
+                if (!positionRestored && resolveSavedOffset(pagesEnd) >= 0) {
+                    restorePosition();
+                } else if (controlsVisible) {
+                    updateProgressBar();
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                loadProgress.setVisibility(View.GONE);
+                loadFinished = true;
+                Log.d(TAG, "Built " + pageIndex.getPageCount() + " pages, " + pageIndex.getChapterCount() + " chapters");
+                if (!positionRestored) {
+                    restorePosition();
+                }
+            }
+
+            @Override
+            public void onError(IOException e) {
+                loadProgress.setVisibility(View.GONE);
+                Toast.makeText(ReaderActivity.this, "使用 " + currentEncoding + " 读取失败，请尝试其他编码", Toast.LENGTH_SHORT).show();
+            }
+        });
+        loader.start();
+    }
+
+    /**
+     * 使用进程内保留的书籍（界面重建，或关闭后很快重新打开），不再映射文件和读取索引
+     */
+    private void attachRetained(OpenBookCache.Entry retained) {
+        long begin = System.nanoTime();
+        document = retained.document;
+        pageIndex = retained.pageIndex;
+        currentEncoding = document.getEncoding();
+        loadProgress.setVisibility(View.GONE);
+        loadFinished = true;
+        rebuildPaginator();
+        openRecord.opened(document, System.nanoTime() - begin);
+        openRecord.finished("reused", pageIndex.getChapterCount(), pageIndex.getPageCount());
+        Log.d(TAG, "Reused retained document: " + pageIndex.getPageCount() + " pages");
+        restorePosition();
+    }
+
+    private void cancelLoading() {
+        if (loader != null) {
+            loader.cancel();
+            loader = null;
+        }
+    }
+
+    /**
+     * 要恢复的字符偏移：打开时指定的位置、保存的字节偏移（经块索引换算）或旧版本的页码。
+     * 所在页面尚未生成（偏移不小于 pagesEnd）时返回 -1
+     */
+    private int resolveSavedOffset(int pagesEnd) {
+        int offset;
+        if (jumpOffset >= 0) {
+            offset = jumpOffset;
+        } else if (savedPosition >= 0) {
+            offset = document != null ? document.charOffsetOf(savedPosition) : -1;
+        } else {
+            if (savedPage >= pageIndex.getPageCount()) {
+                return -1;
+            }
+            int pageStart = pageIndex.getPageStart(savedPage);
+            int pageLength = pageIndex.getPageEnd(savedPage) - pageStart;
+            offset = pageStart + Math.max(0, Math.min(savedScrollOffset, pageLength - 1));
+        }
+        return offset >= 0 && offset < pagesEnd ? offset : -1;
+    }
+
+    /**
+     * 恢复上次阅读位置；加载完成时仍未就绪（位置超出全文）则从头显示
+     */
+    private void restorePosition() {
+        int offset = Math.max(resolveSavedOffset(pageIndex.getPagesEnd()), 0);
+        positionRestored = true;
+        jumpOffset = -1;
+        moveTo(offset, false);
+    }
+
+    /**
+     * 按当前字号和可视区域重新创建屏幕分页器，旧的分屏结果全部作废
+     */
+    private void rebuildPaginator() {
+        cancelPaginator();
+        pageCache.clear(); // 屏的划分和测量结果都已失效
+        if (document == null) {
+            return;
+        }
+        int viewportHeight = scrollView.getHeight() - scrollView.getPaddingTop() - scrollView.getPaddingBottom();
+        paginator = new ScreenPaginator(document, tvContent, viewportHeight, (page, screenStarts) -> {
+            if (page == currentPageIndex && !showingScreen) {
+                displayCurrentPage(); // 当前页面分屏完成，切换到对应的一屏
+            } else if (showingScreen) {
+                prefetchScreens(); // 相邻页面分屏完成，预取可以越过页面边界
             }
+        });
+    }
 
-            displayCurrentPage();
-            // 恢复滚动偏移（在页面显示后执行）
-            scrollView.post(() -> scrollView.scrollTo(0, savedScrollOffset));
-        } catch (IOException e) {
-            Log.e(TAG, "Read file failed with encoding " + encoding, e);
-            Toast.makeText(this, "使用 " + encoding + " 读取失败，请尝试其他编码", Toast.LENGTH_SHORT).show();
+    /**
+     * 按阅读方向预取后几屏（以及反方向一屏），放入页面缓存
+     */
+    private void prefetchScreens() {
+        if (paginator == null || document == null || !showingScreen) {
+            return;
+        }
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(tvContent);
+        prefetchScreens(readingForward ? 1 : -1, memoryProfile.prefetchAhead, params);
+        prefetchScreens(readingForward ? -1 : 1, memoryProfile.prefetchBehind, params);
+    }
+
+    private void prefetchScreens(int direction, int count, PrecomputedTextCompat.Params params) {
+        int page = currentPageIndex;
+        int[] screens = paginator.getScreens(page);
+        if (screens == null) {
+            return;
+        }
+        int screen = findScreen(screens, readingOffset);
+        for (int i = 0; i < count; i++) {
+            screen += direction;
+            // 越过页面边界时使用相邻页面的分屏结果（尚未分屏则停止）
+            while (screen < 0 || screen >= screens.length) {
+                page += direction;
+                if (page < 0 || page >= pageIndex.getPageCount()) {
+                    return;
+                }
+                screens = paginator.getScreens(page);
+                if (screens == null) {
+                    return;
+                }
+                screen = direction > 0 ? 0 : screens.length - 1;
+            }
+            int start = screens[screen];
+            int end = screen + 1 < screens.length ? screens[screen + 1] : pageIndex.getPageEnd(page);
+            pageCache.prefetch(document, start, end, pageIndex.getTitleRanges(start, end), params, currentFontSize);
+        }
+    }
+
+    private void cancelPaginator() {
+        if (paginator != null) {
+            paginator.cancel();
+            paginator = null;
+        }
+        showingScreen = false;
+    }
+
+    /**
+     * 请求对页面分屏（页首是章节时带上标题长度，与显示时的样式一致）
+     */
+    private void requestScreens(int page) {
+        if (paginator == null || page < 0 || page >= pageIndex.getPageCount()) {
+            return;
+        }
+        int pageStart = pageIndex.getPageStart(page);
+        int chapter = pageIndex.findChapter(pageStart);
+        int titleLength = 0;
+        if (chapter >= 0 && pageIndex.getChapter(chapter).getStartIndex() == pageStart) {
+            titleLength = pageIndex.getChapter(chapter).getTitle().length();
+        }
+        paginator.request(page, pageStart, pageIndex.getPageEnd(page), titleLength);
+    }
+
+    /**
+     * 跳转到字符偏移所在的一屏；lastScreen 为 true 时显示该页面的最后一屏
+     */
+    private void moveTo(int offset, boolean lastScreen) {
+        readingOffset = offset;
+        showLastScreen = lastScreen;
+        displayCurrentPage();
+    }
+
+    private void nextScreen() {
+        if (pageIndex.getPageCount() == 0) return;
+        readingForward = true;
+        int[] screens = paginator != null ? paginator.getScreens(currentPageIndex) : null;
+        if (screens != null && showingScreen) {
+            int screen = findScreen(screens, readingOffset);
+            if (screen + 1 < screens.length) {
+                moveTo(screens[screen + 1], false);
+                return;
+            }
+        }
+        if (currentPageIndex + 1 < pageIndex.getPageCount()) {
+            moveTo(pageIndex.getPageStart(currentPageIndex + 1), false);
+        }
+    }
+
+    private void previousScreen() {
+        if (pageIndex.getPageCount() == 0) return;
+        readingForward = false;
+        int[] screens = paginator != null ? paginator.getScreens(currentPageIndex) : null;
+        if (screens != null && showingScreen) {
+            int screen = findScreen(screens, readingOffset);
+            if (screen > 0) {
+                moveTo(screens[screen - 1], false);
+                return;
+            }
+        } else if (readingOffset > pageIndex.getPageStart(currentPageIndex)) {
+            moveTo(pageIndex.getPageStart(currentPageIndex), false);
+            return;
         }
+        if (currentPageIndex > 0) {
+            moveTo(pageIndex.getPageStart(currentPageIndex - 1), true);
+        }
+    }
+
+    // 包含 offset 的屏（起点不大于 offset 的最后一屏）
+    private static int findScreen(int[] screens, int offset) {
+        int index = Arrays.binarySearch(screens, offset);
+        return index >= 0 ? index : Math.max(-index - 2, 0);
     }
 
     /**
@@ -294,11 +590,13 @@ public class ReaderActivity extends AppCompatActivity {
         builder.setItems(encodings, (dialog, which) -> {
             String selectedEncoding = encodings[which];
             if (!selectedEncoding.equals(currentEncoding)) {
-                // 保存新编码到数据库
+                // 字节偏移与编码无关，重新解码后回到同一位置
+                if (positionRestored && document != null) {
+                    savedPosition = document.byteOffsetOf(readingOffset);
+                }
+                // 保存新编码到数据库（用户选择，不再自动检测）
                 if (bookId != -1) {
-                    BooksDatabaseHelper dbHelper = new BooksDatabaseHelper(this);
-                    dbHelper.updateEncoding(bookId, selectedEncoding);
-                    dbHelper.close();
+                    BookStateWriter.getInstance(this).setEncoding(bookId, selectedEncoding, BooksDatabaseHelper.CONFIDENCE_USER);
                 }
                 // 重新加载文件
                 loadFileWithEncoding(bookUri, selectedEncoding);
@@ -308,246 +606,379 @@ public class ReaderActivity extends AppCompatActivity {
     }
 
     /**
-     * 解析章节：匹配中文“第...章/节”以及连续三位以上数字
+     * 显示 readingOffset 所在的一屏。页面尚未分屏时先从 readingOffset 显示到页面末尾（可滚动），
+     * 分屏完成后再切换到对应的一屏；同时预先计算前后相邻的页面。
      */
-    private void parseChapters(String text) {
-        chapters.clear();
-
-        Pattern chinesePattern = Pattern.compile(
-                "^(\\s*第[一二三四五六七八九十百千万0-9]+[章节])",
-                Pattern.MULTILINE);
-        Pattern digitPattern = Pattern.compile(
-                "^(\\s*[0-9]{2,})",
-                Pattern.MULTILINE);
-
-        List<Chapter> tempChapters = new ArrayList<>();
-
-        // 中文章节
-        Matcher matcher = chinesePattern.matcher(text);
-        while (matcher.find()) {
-            String title = matcher.group().trim();
-            int start = matcher.start();
-            tempChapters.add(new Chapter(title, start, ""));
-        }
-
-        // 数字章节（过滤年份）
-        matcher = digitPattern.matcher(text);
-        while (matcher.find()) {
-            String title = matcher.group().trim();
-            int start = matcher.start();
-            // 过滤四位数字且值在1900-2099之间（年份）
-            if (title.length() == 4) {
-                try {
-                    int num = Integer.parseInt(title);
-                    if (num >= 1900 && num <= 2099) {
-                        continue; // 跳过年份
-                    }
-                } catch (NumberFormatException ignored) {}
-            }
-            tempChapters.add(new Chapter(title, start, ""));
+    private void displayCurrentPage() {
+        TraceCompat.beginSection("ReaderActivity.displayCurrentPage");
+        try {
+            displayCurrentPage(System.nanoTime());
+        } finally {
+            TraceCompat.endSection();
         }
+    }
 
-        // 按起始位置排序
-        Collections.sort(tempChapters, new Comparator<Chapter>() {
-            @Override
-            public int compare(Chapter a, Chapter b) {
-                return Integer.compare(a.getStartIndex(), b.getStartIndex());
+    // requestedAt：请求显示的时间（System.nanoTime），用于统计显示耗时
+    private void displayCurrentPage(long requestedAt) {
+        int pageCount = pageIndex.getPageCount();
+        if (pageCount == 0 || document == null || !positionRestored) return;
+        int page = pageIndex.findPage(readingOffset);
+        if (page == -1) {
+            page = readingOffset < 0 ? 0 : pageCount - 1;
+            readingOffset = pageIndex.getPageStart(page);
+        }
+        currentPageIndex = page;
+        int pageStart = pageIndex.getPageStart(page);
+        int pageEnd = pageIndex.getPageEnd(page);
+
+        int start = readingOffset;
+        int end = pageEnd;
+        int[] screens = paginator != null ? paginator.getScreens(page) : null;
+        if (screens != null) {
+            int screen = showLastScreen ? screens.length - 1 : findScreen(screens, readingOffset);
+            showLastScreen = false;
+            start = screens[screen];
+            end = screen + 1 < screens.length ? screens[screen + 1] : pageEnd;
+            readingOffset = start;
+        } else if (showLastScreen) {
+            start = pageStart;
+        }
+        showingScreen = screens != null;
+        if (paginator != null) {
+            paginator.setFocus(page);
+            requestScreens(page);
+            requestScreens(page + 1);
+            requestScreens(page - 1);
+        }
+
+        updateProgressBar();
+
+        int token = ++displayToken;
+        int fontSize = currentFontSize;
+        boolean cacheable = showingScreen;
+        if (cacheable) {
+            // 已预取：一次查找即可显示
+            PreparedPage cached = pageCache.get(fontSize, start, end);
+            if (cached != null) {
+                showPage(cached, requestedAt, true);
+                prefetchScreens();
+                return;
             }
+        }
+
+        // 在后台生成文本并测量排版，完成后只需在主线程设置
+        int[] titleRanges = pageIndex.getTitleRanges(start, end);
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(tvContent);
+        TextDocument doc = document;
+        int pageFrom = start;
+        int pageTo = end;
+        PAGE_EXECUTOR.execute(() -> {
+            PreparedPage prepared = PreparedPage.prepare(doc, pageFrom, pageTo, titleRanges, params);
+            runOnUiThread(() -> {
+                // 界面重建时旧实例不是 finishing，只能按是否已销毁判断
+                if (destroyed) {
+                    return;
+                }
+                if (cacheable && fontSize == currentFontSize) {
+                    pageCache.put(fontSize, prepared);
+                }
+                if (token == displayToken) {
+                    showPage(prepared, requestedAt, false);
+                    prefetchScreens();
+                }
+            });
         });
+    }
 
-        // 添加“前言”章节
-        List<Chapter> finalChapters = new ArrayList<>();
-        if (!tempChapters.isEmpty() && tempChapters.get(0).getStartIndex() > 0) {
-            // 创建前言章节，起始索引为0
-            Chapter preface = new Chapter("前言", 0, "");
-            finalChapters.add(preface);
-        }
-        finalChapters.addAll(tempChapters);
+    /**
+     * 显示准备好的一屏，并记录从请求显示（requestedAt）到设置完文本的耗时
+     */
+    private void showPage(PreparedPage prepared, long requestedAt, boolean cached) {
+        TraceCompat.beginSection("ReaderActivity.showPage");
+        currentPrepared = prepared;
+        setPreparedText(prepared);
+        scrollView.scrollTo(0, 0);
+        TraceCompat.endSection();
+        openRecord.rendered(System.nanoTime() - requestedAt, cached);
+    }
 
-        // 重新生成 anchorId
-        for (int i = 0; i < finalChapters.size(); i++) {
-            Chapter ch = finalChapters.get(i);
-            chapters.add(new Chapter(ch.getTitle(), ch.getStartIndex(), "chapter_" + i));
+    private void setPreparedText(PreparedPage prepared) {
+        highlightHits(prepared);
+        try {
+            TextViewCompat.setPrecomputedText(tvContent, prepared.text);
+        } catch (IllegalArgumentException e) {
+            // 测量参数与 TextView 不一致（期间字号已变化），按普通文本显示
+            tvContent.setText(prepared.text);
         }
-
-        Log.d(TAG, "Parsed " + chapters.size() + " chapters (including preface)");
     }
 
     /**
-     * 构建页面：优先按章节分页，每个章节一页；若章节内容过长则拆分为多页
+     * 标出本屏中的搜索结果。背景色不影响排版，可以直接加在已测量的文本上；
+     * 缓存的屏可能带有上一次搜索的标记，先全部移除
      */
-    private void buildPages() {
-        pages.clear();
-        if (chapters.isEmpty()) {
-            // 无章节，按固定字符分页
-            int len = fullText.length();
-            int start = 0;
-            while (start < len) {
-                int end = Math.min(start + MAX_PAGE_CHARS, len);
-                pages.add(new Page(start, end));
-                start = end;
-            }
-        } else {
-            // 有章节，以章节为单位分页
-            int lastPos = 0;
-            for (int i = 0; i < chapters.size(); i++) {
-                Chapter ch = chapters.get(i);
-                int chapterStart = ch.getStartIndex();
-                int chapterEnd = (i < chapters.size() - 1) ? chapters.get(i + 1).getStartIndex() : fullText.length();
-
-                // 计算本章长度
-                int chapterLen = chapterEnd - chapterStart;
-                if (chapterLen <= MAX_PAGE_CHARS) {
-                    // 本章一页
-                    pages.add(new Page(chapterStart, chapterEnd));
-                } else {
-                    // 本章拆分为多页
-                    int subStart = chapterStart;
-                    while (subStart < chapterEnd) {
-                        int subEnd = Math.min(subStart + MAX_PAGE_CHARS, chapterEnd);
-                        pages.add(new Page(subStart, subEnd));
-                        subStart = subEnd;
-                    }
-                }
-                lastPos = chapterEnd;
+    private void highlightHits(PreparedPage prepared) {
+        Spannable text = prepared.text;
+        for (BackgroundColorSpan span : text.getSpans(0, text.length(), BackgroundColorSpan.class)) {
+            text.removeSpan(span);
+        }
+        int length = searchQuery.length();
+        for (int i = firstHitAfter(prepared.start - length); i < searchHits.size(); i++) {
+            int hitStart = searchHits.get(i).offset;
+            if (hitStart >= prepared.end) {
+                break;
             }
+            int localStart = Math.max(hitStart - prepared.start, 0);
+            int localEnd = Math.min(hitStart + length, prepared.end) - prepared.start;
+            text.setSpan(new BackgroundColorSpan(HIGHLIGHT_COLOR), localStart, localEnd,
+                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
-        Log.d(TAG, "Built " + pages.size() + " pages");
     }
 
-    private void displayCurrentPage() {
-        if (totalPages == 0) return;
-        Page page = pages.get(currentPageIndex);
-        String pageText = fullText.substring(page.start, page.end);
-
-        SpannableString spannable = new SpannableString(pageText);
-
-        // 1. 基础字体大小
-        spannable.setSpan(new AbsoluteSizeSpan(currentFontSize, true), 0, pageText.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    // 第一个起点大于 offset 的结果（二分查找）
+    private int firstHitAfter(int offset) {
+        int low = 0;
+        int high = searchHits.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (searchHits.get(mid).offset <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 
-        // 2. 基础文字颜色
+    /**
+     * 深色模式：只修改 TextView 的颜色，文本和排版保持不变
+     */
+    private void applyColors() {
         int bgColor = isDarkMode ? 0xFF1E1E1E : 0xFFFFFFFF;
         int textColor = isDarkMode ? 0xFFC0C0C0 : 0xFF000000;
         tvContent.setBackgroundColor(bgColor);
-        spannable.setSpan(new ForegroundColorSpan(textColor), 0, pageText.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-
-        // 3. 标记章节标题（加粗+放大）
-        for (Chapter chapter : chapters) {
-            int chapterStart = chapter.getStartIndex();
-            int chapterEnd = chapterStart + chapter.getTitle().length();
-            if (chapterEnd > page.start && chapterStart < page.end) {
-                int localStart = Math.max(chapterStart - page.start, 0);
-                int localEnd = Math.min(chapterEnd - page.start, pageText.length());
-                if (localStart < localEnd) {
-                    // 加粗
-                    spannable.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), localStart, localEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    // 放大（基础字体*1.2）
-                    int biggerSize = (int) (currentFontSize * 1.2);
-                    spannable.setSpan(new AbsoluteSizeSpan(biggerSize, true), localStart, localEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
+        tvContent.setTextColor(textColor);
+    }
+
+    /**
+     * 显示搜索对话框：保留上一次的搜索词和结果，点击结果跳转到对应位置
+     */
+    private void showSearchDialog() {
+        if (!loadFinished || document == null) {
+            Toast.makeText(this, "正在加载，请稍后搜索", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (searcher == null) {
+            searcher = new BookSearcher(this, document, bookId);
+        }
+        View view = getLayoutInflater().inflate(R.layout.dialog_search, null);
+        EditText input = view.findViewById(R.id.search_input);
+        TextView status = view.findViewById(R.id.search_status);
+        ListView results = view.findViewById(R.id.search_results);
+        ArrayAdapter<BookSearcher.Hit> adapter = new ArrayAdapter<>(this,
+                android.R.layout.simple_list_item_1, new ArrayList<>(searchHits));
+        results.setAdapter(adapter);
+        input.setText(searchQuery);
+        if (!searchHits.isEmpty()) {
+            status.setText("共找到 " + searchHits.size() + " 处");
+        }
+
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle("搜索")
+                .setView(view)
+                .setNegativeButton("关闭", null)
+                .create();
+        results.setOnItemClickListener((parent, itemView, position, id) -> {
+            BookSearcher.Hit hit = adapter.getItem(position);
+            dialog.dismiss();
+            if (controlsVisible) {
+                toggleControls();
             }
+            if (hit != null) {
+                moveTo(hit.offset, false);
+            }
+        });
+        input.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId != EditorInfo.IME_ACTION_SEARCH) {
+                return false;
+            }
+            startSearch(input.getText().toString(), status, adapter);
+            return true;
+        });
+        dialog.show();
+    }
+
+    private void startSearch(String query, TextView status, ArrayAdapter<BookSearcher.Hit> adapter) {
+        searchQuery = query;
+        searchHits.clear();
+        adapter.clear();
+        refreshHighlights();
+        if (query.isEmpty()) {
+            searcher.cancel();
+            status.setText("");
+            return;
         }
+        status.setText("正在搜索…");
+        searcher.search(query, new BookSearcher.Callback() {
+            @Override
+            public void onIndexing(int done, int total) {
+                status.setText("正在建立索引 " + done * 100 / Math.max(total, 1) + "%");
+            }
+
+            @Override
+            public void onHits(List<BookSearcher.Hit> hits) {
+                searchHits.addAll(hits);
+                adapter.addAll(hits);
+                status.setText("找到 " + searchHits.size() + " 处");
+                // 新结果落在当前屏内时重新标记
+                PreparedPage shown = currentPrepared;
+                if (shown != null && hits.get(0).offset < shown.end
+                        && hits.get(hits.size() - 1).offset + query.length() > shown.start) {
+                    refreshHighlights();
+                }
+            }
 
-        tvContent.setText(spannable);
+            @Override
+            public void onFinished(int total) {
+                status.setText(total == 0 ? "未找到" : "共找到 " + total + " 处");
+            }
+        });
+    }
 
-        // 恢复滚动偏移（注意：切换页面后需要重置滚动位置到保存的偏移，但通常新页面偏移应为0）
-        if (currentPageIndex == savedPage) {
-            scrollView.scrollTo(0, savedScrollOffset);
-        } else {
-            scrollView.scrollTo(0, 0);
+    // 重新标记当前屏的搜索结果，保持滚动位置
+    private void refreshHighlights() {
+        if (currentPrepared == null) {
+            return;
         }
-        updateProgressBar();
+        int scrollY = scrollView.getScrollY();
+        setPreparedText(currentPrepared);
+        scrollView.scrollTo(0, scrollY);
     }
 
-    private void applyTextStyle() {
-        if (totalPages == 0) return;
-        displayCurrentPage(); // 重新生成Spannable，应用新字体/颜色
+    private void cancelSearch() {
+        if (searcher != null) {
+            searcher.cancel();
+            searcher = null;
+        }
+        searchQuery = "";
+        searchHits.clear();
     }
 
     /**
      * 显示目录对话框
      */
     private void showChapterDialog() {
-        if (chapters.isEmpty()) {
+        int chapterCount = pageIndex.getChapterCount();
+        if (chapterCount == 0) {
             Toast.makeText(this, "未检测到章节", Toast.LENGTH_SHORT).show();
             return;
         }
-        String[] titles = new String[chapters.size()];
-        for (int i = 0; i < chapters.size(); i++) {
-            titles[i] = chapters.get(i).getTitle();
+        String[] titles = new String[chapterCount];
+        for (int i = 0; i < chapterCount; i++) {
+            titles[i] = pageIndex.getChapter(i).getTitle();
         }
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("目录");
         builder.setItems(titles, (dialog, which) -> {
-            Chapter chapter = chapters.get(which);
-            jumpToChapter(chapter);
+            jumpToChapter(which);
             toggleControls();
         });
         builder.show();
     }
 
     /**
-     * 跳转到指定章节（找到包含该章节的页面）
+     * 跳转到指定章节（二分查找包含该章节的页面）
      */
-    private void jumpToChapter(Chapter chapter) {
-        int charIndex = chapter.getStartIndex();
-        // 查找包含该字符的页面
-        for (int i = 0; i < pages.size(); i++) {
-            Page p = pages.get(i);
-            if (charIndex >= p.start && charIndex < p.end) {
-                if (i != currentPageIndex) {
-                    currentPageIndex = i;
-                    displayCurrentPage();
-                } else {
-                    // 同一页内，滚动到章节标题位置（估算）
-                    int localOffset = charIndex - p.start;
-                    tvContent.post(() -> scrollView.scrollTo(0, (int)(localOffset * currentFontSize * 0.5)));
-                }
-                break;
-            }
+    private void jumpToChapter(int chapter) {
+        if (pageIndex.getChapterPage(chapter) == -1) {
+            return; // 该章节尚未分页
         }
-        updateProgressBar();
+        moveTo(pageIndex.getChapter(chapter).getStartIndex(), false);
     }
 
     /**
-     * 保存当前阅读进度（页码 + 滚动偏移）
+     * 保存当前阅读进度（字节偏移，字号、分页或编码变化后仍然准确）
      */
     private void saveProgress() {
-        if (bookId == -1) return;
-        int scrollY = scrollView.getScrollY();
-        BooksDatabaseHelper dbHelper = new BooksDatabaseHelper(this);
-        dbHelper.updateProgress(bookId, currentPageIndex, scrollY);
-        dbHelper.close();
-        Log.d(TAG, "Saved: page=" + currentPageIndex + ", offset=" + scrollY);
+        if (bookId == -1 || !positionRestored || document == null) return; // 尚未恢复位置时不覆盖保存的进度
+        savedPosition = document.byteOffsetOf(readingOffset);
+        BookStateWriter.getInstance(this).setPosition(bookId, savedPosition);
+        Log.d(TAG, "Saved: offset=" + readingOffset + ", position=" + savedPosition);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        resumedAt = SystemClock.elapsedRealtime();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         saveProgress();
+        if (bookId != -1 && resumedAt != 0) {
+            BookStateWriter.getInstance(this).addReadTime(bookId, SystemClock.elapsedRealtime() - resumedAt);
+            resumedAt = 0;
+        }
+        BookStateWriter.getInstance(this).flush();
     }
 
-    private String readTextFromUri(Uri uri, String charsetName) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        try (InputStream inputStream = getContentResolver().openInputStream(uri);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, charsetName))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append('\n');
-            }
-        }
-        return sb.toString();
+    @Override
+    protected void onStop() {
+        super.onStop();
+        BookStateWriter.getInstance(this).flush();
     }
 
     /**
-     * 页面内部类
+     * 内存紧张时按顺序释放可以重建的数据，文件映射和页面/章节索引保留，不需要重新加载
+     * （已关闭但仍保留的书籍由 {@link OpenBookCache} 最先释放）：
+     * 1. RUNNING_MODERATE：预取的页面（之后按需重新准备）
+     * 2. RUNNING_LOW：另外释放内存中的搜索索引（下次搜索时从文件读取）和当前页面以外的分屏结果
+     * 3. RUNNING_CRITICAL 或进入后台后（BACKGROUND 及以上）：另外释放解码窗口（显示时重新解码当前位置的块）
+     * <p>
+     * 各级别的数值不是按紧张程度排列的（UI_HIDDEN 大于 RUNNING_CRITICAL），所以逐个判断；
+     * 只是离开界面（UI_HIDDEN）时不释放任何数据，回来时可以立即继续阅读。
      */
-    private static class Page {
-        int start;
-        int end;
-        Page(int start, int end) {
-            this.start = start;
-            this.end = end;
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Log.d(TAG, "onTrimMemory: " + level);
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+        boolean critical = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+        boolean low = critical || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+        pageCache.clear();
+        if (low) {
+            if (searcher != null) {
+                searcher.releaseIndex();
+            }
+            if (paginator != null) {
+                paginator.retain(currentPageIndex);
+            }
+        }
+        if (critical && document != null) {
+            document.releaseWindow();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        cancelLoading();
+        cancelPaginator();
+        cancelSearch();
+        pageCache.clear();
+        if (document != null) {
+            openRecord.updateCounts(document);
+            if (loadFinished) {
+                // 交给进程内缓存：旋转屏幕、切换深色模式或重新打开时直接使用
+                OpenBookCache.put(this, bookId, bookUri, document, pageIndex);
+            } else {
+                document.close();
+            }
         }
     }
-}
\ No newline at end of file
+}
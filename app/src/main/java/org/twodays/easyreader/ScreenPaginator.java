@@ -0,0 +1,204 @@
+package org.twodays.easyreader;
+
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.widget.TextView;
+
+import org.twodays.easyreader.engine.PageIndex;
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 屏幕分页：在工作线程用 StaticLayout 按当前字号、可视区域和字体，
+ * 把一个页面（{@link PageIndex} 中与章节对齐的文本段）切分成正好一屏的若干屏。
+ * <p>
+ * 结果按页面缓存，只在阅读位置附近按需计算。字号或可视区域变化时丢弃整个分页器，
+ * 新分页器只计算当前阅读的页面。请求和回调都在主线程。
+ */
+public class ScreenPaginator {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final int PREFETCH_DISTANCE = 1; // 只计算阅读位置前后各一个页面
+
+    public interface Callback {
+        /** 页面 page 已分屏，screenStarts 为每屏起点（全文字符偏移） */
+        void onPaginated(int page, int[] screenStarts);
+    }
+
+    private final TextDocument document;
+    private final TextPaint paint;
+    private final int width;
+    private final int height;
+    private final float spacingMult;
+    private final float spacingAdd;
+    private final boolean includePad;
+    private final Callback callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // 以下字段只在主线程访问
+    private final SparseArray<int[]> screens = new SparseArray<>();
+    private final SparseBooleanArray pending = new SparseBooleanArray();
+    private volatile boolean cancelled = false;
+    private volatile int focusPage = 0;          // 当前阅读的页面，远离它的排队请求直接放弃
+
+    /**
+     * 按 textView 当前的画笔（字号、字体）、行距和内边距，以及可视高度 viewportHeight 分屏
+     */
+    public ScreenPaginator(TextDocument document, TextView textView, int viewportHeight, Callback callback) {
+        this.document = document;
+        this.paint = new TextPaint(textView.getPaint());
+        this.width = textView.getWidth() - textView.getPaddingLeft() - textView.getPaddingRight();
+        this.spacingMult = textView.getLineSpacingMultiplier();
+        this.spacingAdd = textView.getLineSpacingExtra();
+        this.includePad = textView.getIncludeFontPadding();
+        this.callback = callback;
+        // 单独显示一屏时首行会多出字体上方的留白，按标题字号预留出来避免最后一行被裁掉
+        TextPaint measure = new TextPaint(paint);
+        measure.setTextSize(paint.getTextSize() * 1.2f);
+        Paint.FontMetricsInt metrics = measure.getFontMetricsInt();
+        int slack = includePad ? (metrics.ascent - metrics.top) + (metrics.bottom - metrics.descent) : 0;
+        this.height = viewportHeight - textView.getPaddingTop() - textView.getPaddingBottom() - slack;
+    }
+
+    /**
+     * 可视区域是否已经确定（布局完成之前宽高为 0）
+     */
+    public boolean isReady() {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * 已完成的分屏结果，尚未计算时返回 null
+     */
+    public int[] getScreens(int page) {
+        return screens.get(page);
+    }
+
+    /**
+     * 设置当前阅读的页面
+     */
+    public void setFocus(int page) {
+        focusPage = page;
+    }
+
+    /**
+     * 请求对 [start, end) 分屏；titleLength 为页首章节标题的长度（没有时为 0）。
+     * 已完成或正在计算的页面不会重复提交。
+     */
+    public void request(int page, int start, int end, int titleLength) {
+        if (!isReady() || screens.get(page) != null || pending.get(page)) {
+            return;
+        }
+        pending.put(page, true);
+        EXECUTOR.execute(() -> {
+            if (cancelled) {
+                return;
+            }
+            if (Math.abs(page - focusPage) > PREFETCH_DISTANCE) {
+                // 快速拖动进度条时途经的页面不再需要；若期间又回到附近则重新提交
+                mainHandler.post(() -> {
+                    pending.delete(page);
+                    if (!cancelled && Math.abs(page - focusPage) <= PREFETCH_DISTANCE) {
+                        request(page, start, end, titleLength);
+                    }
+                });
+                return;
+            }
+            int[] result = paginate(start, end, titleLength);
+            mainHandler.post(() -> {
+                if (cancelled) {
+                    return;
+                }
+                pending.delete(page);
+                screens.put(page, result);
+                callback.onPaginated(page, result);
+            });
+        });
+    }
+
+    /**
+     * 只保留 page 的分屏结果（内存紧张时），其他页面需要时重新计算
+     */
+    public void retain(int page) {
+        int[] kept = screens.get(page);
+        screens.clear();
+        if (kept != null) {
+            screens.put(page, kept);
+        }
+    }
+
+    /**
+     * 放弃所有未完成的请求，之后不会再有回调
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * 在当前线程对 [start, end) 分屏，返回各屏的起始字符偏移（包内可见，供分配预算测试直接调用）
+     */
+    int[] paginate(int start, int end, int titleLength) {
+        String text = document.getText(start, end);
+        SpannableString styled = new SpannableString(text);
+        if (titleLength > 0) {
+            PreparedPage.markTitle(styled, 0, Math.min(titleLength, text.length()));
+        }
+        Layout layout = newLayout(styled);
+        int lineCount = layout.getLineCount();
+        int[] starts = new int[16];
+        int count = 0;
+        int line = 0;
+        while (line < lineCount) {
+            int lineStart = layout.getLineStart(line);
+            if (count > 0 && lineStart >= text.length()) {
+                break; // 末尾换行符之后的空行不单独成屏
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count++] = start + lineStart;
+            // 至少放一行，避免行高超过屏幕时死循环
+            int top = layout.getLineTop(line);
+            int next = line + 1;
+            while (next < lineCount && layout.getLineBottom(next) - top <= height) {
+                next++;
+            }
+            line = next;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Layout newLayout(CharSequence text) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width)
+                    .setLineSpacing(spacingAdd, spacingMult)
+                    .setIncludePad(includePad)
+                    .setBreakStrategy(Layout.BREAK_STRATEGY_SIMPLE)
+                    .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE)
+                    .build();
+        }
+        return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, spacingMult, spacingAdd, includePad);
+    }
+
+    /**
+     * 阅读界面与分屏共用的断行设置：逐行贪心断行，任意一屏单独排版时与整段排版的断行一致
+     */
+    public static void configureTextView(TextView textView) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            textView.setBreakStrategy(Layout.BREAK_STRATEGY_SIMPLE);
+            textView.setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE);
+        }
+    }
+}
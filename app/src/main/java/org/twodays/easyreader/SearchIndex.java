@@ -0,0 +1,239 @@
+package org.twodays.easyreader;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 书内搜索的二元组（bigram）索引：每个块一张位图，记录块中出现过的
+ * 单字和相邻两字（按哈希置位）。位图大小按块的字符数计算（每字符 {@link #BITS_PER_CHAR} 位），
+ * 置位比例约四分之一，GBK 等字符多的块不会因为位图过满而几乎全部误报。中文没有词边界，按相邻两字索引即可匹配任意位置的子串。
+ * <p>
+ * 查询时只有位图包含查询中全部二元组的块才需要解码并逐字比较（位图可能误报，不会漏报）。
+ * 每个块的位图还包含下一块开头 {@link #OVERLAP} 个字符，跨块的匹配同样能找到。
+ * 索引按 (编码, 文件大小, 修改时间, 块数) 校验，保存在应用私有目录中。
+ * <p>
+ * 文件格式：头部（魔数、版本、编码、文件大小、修改时间、块数）+ 每块位图的起始字下标（块数 + 1 个）+ 位图。
+ */
+public class SearchIndex {
+
+    private static final String TAG = "SearchIndex";
+
+    private static final int MAGIC = 0x45524249;       // "ERBI"
+    private static final int VERSION = 2;
+    private static final int BITS_PER_CHAR = 4;        // 每块位图的位数 = 字符数 * 4（按 64 位取整）
+    static final int OVERLAP = 32;                     // 位图额外覆盖的下一块开头字符数
+
+    final String encoding;
+    final long fileSize;
+    final long lastModified;
+    final int blockCount;
+    private final int[] offsets;                       // 第 i 块的位图为 bits[offsets[i], offsets[i + 1])
+    private final long[] bits;
+
+    private SearchIndex(String encoding, long fileSize, long lastModified, int blockCount,
+                        int[] offsets, long[] bits) {
+        this.encoding = encoding;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.blockCount = blockCount;
+        this.offsets = offsets;
+        this.bits = bits;
+    }
+
+    /**
+     * 顺序解码所有块建立索引（在工作线程调用），progress 可为 null
+     */
+    static SearchIndex build(TextDocument doc, CancellationSignal signal, ProgressListener progress) {
+        int blockCount = doc.getBlockCount();
+        int[] offsets = new int[blockCount + 1];
+        long[] bits = new long[Math.max(1, doc.length() * BITS_PER_CHAR / 64 + blockCount)];
+        char previousLast = 0;
+        for (int block = 0; block < blockCount; block++) {
+            signal.throwIfCanceled();
+            char[] chars = doc.readBlock(block);
+            int base = offsets[block];
+            int words = wordsFor(chars.length);
+            offsets[block + 1] = base + words;
+            if (offsets[block + 1] > bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(offsets[block + 1], bits.length * 3 / 2));
+            }
+            for (int i = 0; i < chars.length; i++) {
+                set(bits, base, words, unigram(chars[i]));
+                if (i + 1 < chars.length) {
+                    set(bits, base, words, bigram(chars[i], chars[i + 1]));
+                }
+            }
+            if (block > 0 && chars.length > 0) {
+                // 上一块的位图覆盖到本块开头 OVERLAP 个字符
+                int previous = offsets[block - 1];
+                int previousWords = base - previous;
+                set(bits, previous, previousWords, bigram(previousLast, chars[0]));
+                int head = Math.min(OVERLAP, chars.length);
+                for (int i = 0; i + 1 < head; i++) {
+                    set(bits, previous, previousWords, bigram(chars[i], chars[i + 1]));
+                }
+            }
+            if (chars.length > 0) {
+                previousLast = chars[chars.length - 1];
+            }
+            if (progress != null) {
+                progress.onProgress(block + 1, blockCount);
+            }
+        }
+        if (bits.length != offsets[blockCount]) {
+            bits = Arrays.copyOf(bits, offsets[blockCount]);
+        }
+        return new SearchIndex(doc.getEncoding(), doc.getByteLength(), doc.getLastModified(), blockCount,
+                offsets, bits);
+    }
+
+    // 块中 charCount 个字符（另加下一块开头 OVERLAP 个）所需的位图字数
+    private static int wordsFor(int charCount) {
+        return ((charCount + OVERLAP) * BITS_PER_CHAR + 63) / 64;
+    }
+
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * 匹配起点在第 block 块中的结果是否可能存在
+     */
+    boolean mayContain(int block, String query) {
+        int base = offsets[block];
+        int words = offsets[block + 1] - base;
+        if (query.length() == 1) {
+            return isSet(base, words, unigram(query.charAt(0)));
+        }
+        // 只检查前 OVERLAP+1 个字符：从本块开始的匹配至少这一段落在位图覆盖的范围内
+        int length = Math.min(query.length(), OVERLAP + 1);
+        for (int i = 0; i + 1 < length; i++) {
+            if (!isSet(base, words, bigram(query.charAt(i), query.charAt(i + 1)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean matches(TextDocument doc) {
+        return encoding.equals(doc.getEncoding())
+                && fileSize == doc.getByteLength()
+                && lastModified == doc.getLastModified()
+                && blockCount == doc.getBlockCount();
+    }
+
+    /**
+     * 读取索引文件，不存在或损坏时返回 null
+     */
+    static SearchIndex load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileInputStream fis = new FileInputStream(file);
+             DataInputStream in = new DataInputStream(fis)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String encoding = in.readUTF();
+            long fileSize = in.readLong();
+            long lastModified = in.readLong();
+            int blockCount = in.readInt();
+            FileChannel channel = fis.getChannel();
+            // DataInputStream 没有缓冲，下标表和位图紧接在头部之后；分配数组前先按文件长度校验块数
+            long remaining = channel.size() - channel.position();
+            if (blockCount < 0 || (blockCount + 1) * 4L > remaining) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), remaining);
+            int[] offsets = new int[blockCount + 1];
+            buffer.asIntBuffer().get(offsets);
+            if (offsets[0] != 0 || offsets[blockCount] != (remaining - offsets.length * 4L) / 8
+                    || (remaining - offsets.length * 4L) % 8 != 0) {
+                return null;
+            }
+            for (int i = 0; i < blockCount; i++) {
+                if (offsets[i + 1] <= offsets[i]) {
+                    return null;
+                }
+            }
+            long[] bits = new long[offsets[blockCount]];
+            buffer.position(offsets.length * 4);
+            buffer.slice().asLongBuffer().get(bits);
+            return new SearchIndex(encoding, fileSize, lastModified, blockCount, offsets, bits);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Load search index failed: " + file, e);
+            return null;
+        }
+    }
+
+    void save(File file) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(encoding);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeInt(blockCount);
+            out.flush();
+            ByteBuffer buffer = ByteBuffer.allocate(offsets.length * 4 + bits.length * 8);
+            buffer.asIntBuffer().put(offsets);
+            buffer.position(offsets.length * 4);
+            buffer.slice().asLongBuffer().put(bits);
+            buffer.position(0);
+            FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Save search index failed: " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    private static void set(long[] bits, int base, int words, int hash) {
+        int bit = bitOf(words, hash);
+        bits[base + (bit >>> 6)] |= 1L << bit;
+    }
+
+    private boolean isSet(int base, int words, int hash) {
+        int bit = bitOf(words, hash);
+        return (bits[base + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    // 把 32 位哈希按比例映射到 [0, words * 64)，用的是哈希的高位
+    private static int bitOf(int words, int hash) {
+        return (int) (((hash & 0xFFFFFFFFL) * (words * 64L)) >>> 32);
+    }
+
+    // 乘法哈希
+    private static int unigram(char c) {
+        return c * 0x85EBCA6B;
+    }
+
+    private static int bigram(char a, char b) {
+        return ((a << 16) | b) * 0x9E3779B1;
+    }
+}
@@ -0,0 +1,60 @@
+package org.twodays.easyreader;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * 书架搜索结果：书名 · 章节 + 匹配处的摘要
+ */
+public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.ViewHolder> {
+
+    private final List<LibraryIndex.Result> results;
+    private final OnResultClickListener listener;
+
+    public interface OnResultClickListener {
+        void onResultClick(LibraryIndex.Result result);
+    }
+
+    public SearchResultAdapter(List<LibraryIndex.Result> results, OnResultClickListener listener) {
+        this.results = results;
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_search_result, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        LibraryIndex.Result result = results.get(position);
+        holder.tvTitle.setText(result.chapterTitle.isEmpty()
+                ? result.bookName : result.bookName + " · " + result.chapterTitle);
+        holder.tvSnippet.setText(result.snippet);
+        holder.itemView.setOnClickListener(v -> listener.onResultClick(result));
+    }
+
+    @Override
+    public int getItemCount() {
+        return results.size();
+    }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        TextView tvTitle;
+        TextView tvSnippet;
+        public ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvTitle = itemView.findViewById(R.id.tv_result_title);
+            tvSnippet = itemView.findViewById(R.id.tv_result_snippet);
+        }
+    }
+}
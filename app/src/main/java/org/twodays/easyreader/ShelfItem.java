@@ -0,0 +1,57 @@
+package org.twodays.easyreader;
+
+import android.text.TextUtils;
+
+import java.util.Locale;
+
+/**
+ * 书架列表中的一项：只包含列表显示和打开书籍需要的字段
+ */
+public class ShelfItem {
+    final int id;
+    final String name;
+    final String uri;
+    final long fileSize;       // 字节数，-1 表示尚未处理
+    final int chapterCount;    // -1 表示尚未处理
+    final long readPosition;   // 阅读位置（字节偏移），-1 表示未读
+
+    public ShelfItem(int id, String name, String uri, long fileSize, int chapterCount, long readPosition) {
+        this.id = id;
+        this.name = name;
+        this.uri = uri;
+        this.fileSize = fileSize;
+        this.chapterCount = chapterCount;
+        this.readPosition = readPosition;
+    }
+
+    public int getId() { return id; }
+    public String getName() { return name; }
+    public String getUri() { return uri; }
+
+    /**
+     * 列表中的第二行：大小 · 章节数 · 阅读进度；尚未处理完时为 null
+     */
+    String getInfo() {
+        if (chapterCount < 0 || fileSize < 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        if (fileSize >= 1024 * 1024) {
+            sb.append(String.format(Locale.US, "%.1f MB", fileSize / (1024f * 1024f)));
+        } else {
+            sb.append(Math.max(1, fileSize / 1024)).append(" KB");
+        }
+        sb.append(" · ").append(chapterCount).append(" 章");
+        if (readPosition > 0 && fileSize > 0) {
+            sb.append(" · 已读 ").append(Math.min(100, readPosition * 100 / fileSize)).append('%');
+        }
+        return sb.toString();
+    }
+
+    // 内容相同的项不需要重新绑定
+    boolean sameContent(ShelfItem other) {
+        return TextUtils.equals(name, other.name) && TextUtils.equals(uri, other.uri)
+                && fileSize == other.fileSize && chapterCount == other.chapterCount
+                && readPosition == other.readPosition;
+    }
+}
@@ -0,0 +1,27 @@
+package org.twodays.easyreader;
+
+/**
+ * 一本书的全文索引进度：已索引到的字符偏移，以及建立索引时的 (编码, 文件大小, 修改时间)。
+ * 文件或编码变化后已有的索引作废，从头重建；否则从 indexedTo 继续。
+ */
+public class TextIndexState {
+    final String encoding;
+    final long fileSize;
+    final long lastModified;
+    final int indexedTo;
+    final boolean complete;
+
+    public TextIndexState(String encoding, long fileSize, long lastModified, int indexedTo, boolean complete) {
+        this.encoding = encoding;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.indexedTo = indexedTo;
+        this.complete = complete;
+    }
+
+    public boolean matches(String encoding, long fileSize, long lastModified) {
+        return this.encoding.equals(encoding)
+                && this.fileSize == fileSize
+                && this.lastModified == lastModified;
+    }
+}
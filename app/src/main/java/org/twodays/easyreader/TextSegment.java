@@ -0,0 +1,22 @@
+package org.twodays.easyreader;
+
+/**
+ * 全文搜索的索引单位：章节中的一段文本（不跨章节，长度有上限）。
+ * 原文保存在 books.db 的 text_segments 表中，FTS 表只保存分词后的索引。
+ */
+public class TextSegment {
+    final int bookId;
+    final int chapterNo;       // 从 0 开始；没有章节的书全部为 0
+    final String chapterTitle;
+    final int start;           // 在全文中的起始字符偏移
+    final String text;         // 分词后的文本（见 LibraryIndex.tokenize）
+    String bookName;           // 只在搜索结果中填充
+
+    public TextSegment(int bookId, int chapterNo, String chapterTitle, int start, String text) {
+        this.bookId = bookId;
+        this.chapterNo = chapterNo;
+        this.chapterTitle = chapterTitle;
+        this.start = start;
+        this.text = text;
+    }
+}
@@ -0,0 +1,201 @@
+package org.twodays.easyreader;
+
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+import org.twodays.easyreader.engine.BookScanner;
+import org.twodays.easyreader.engine.PageIndex;
+import org.twodays.easyreader.engine.TextDocument;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 阅读热点路径中依赖 Android 的部分（SpannableString、标题样式、PrecomputedText、StaticLayout、TextView）
+ * 的分配预算，引擎部分见 engine 模块的 ReadingPathBenchmark。
+ * <ul>
+ *     <li>翻屏：PreparedPage.prepare 生成并测量一屏，交给 TextView 显示</li>
+ *     <li>字号变化：按新字号重新分屏当前和前后两页（ScreenPaginator.paginate）</li>
+ *     <li>深色模式切换：只修改 TextView 的颜色，不重新生成或测量文本</li>
+ * </ul>
+ * 字节数来自 ThreadMXBean（当前线程的累计分配量）。ThreadMXBean 不提供对象个数，
+ * 对象个数按结果中保留的对象检查：每个标题两个样式对象、切换颜色后 TextView 仍是同一个文本对象。
+ * 使用 native 图形模式，排版和测量运行真实的实现。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class ReadingAllocationTest {
+
+    private static final int SCREEN_CHARS = 600;        // 一屏大约的字数
+    private static final int WARMUP = 5;                // 预热次数（类加载、字体缓存）
+    private static final int REPEAT = 20;               // 取平均的次数
+
+    // 预算：按字符数计算，留有余量；确实需要增加时连同原因一起修改
+    private static final int PAGE_TURN_BYTES_PER_CHAR = 48;
+    private static final int PAGE_TURN_FIXED_BYTES = 16 * 1024;
+    private static final int FONT_CHANGE_BYTES_PER_CHAR = 64;
+    private static final int FONT_CHANGE_FIXED_BYTES = 32 * 1024;
+    private static final int DARK_TOGGLE_BYTES = 4 * 1024;
+
+    private com.sun.management.ThreadMXBean threads;
+    private TextDocument document;
+    private PageIndex index;
+    private TextView textView;
+
+    @Before
+    public void setUp() throws Exception {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        document = TextDocument.open(ByteBuffer.wrap(book().getBytes(Charset.forName("UTF-8"))), "UTF-8", 0L);
+        BookScanner scanner = new BookScanner();
+        document.scan(scanner::feed, null);
+        scanner.finish(document.length());
+        index = new PageIndex();
+        index.addChapters(scanner.takeNewChapters());
+        index.addPages(scanner.takeNewPages(), scanner.getPagesEnd());
+
+        textView = new TextView(RuntimeEnvironment.getApplication());
+        textView.setTextSize(18);
+        ScreenPaginator.configureTextView(textView);
+        layout(textView);
+    }
+
+    @After
+    public void tearDown() {
+        document.close();
+    }
+
+    @Test
+    public void pageTurn() {
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+        int[] offset = {index.getPageStart(1)};
+        long bytes = measure(() -> {
+            int page = index.findPage(offset[0]);
+            int start = offset[0];
+            int end = Math.min(start + SCREEN_CHARS, index.getPageEnd(page));
+            PreparedPage prepared = PreparedPage.prepare(document, start, end, index.getTitleRanges(start, end), params);
+            TextViewCompat.setPrecomputedText(textView, prepared.text);
+            offset[0] = end < index.getPagesEnd() ? end : 0;
+        });
+        assertBudget("pageTurn", bytes, SCREEN_CHARS * PAGE_TURN_BYTES_PER_CHAR + PAGE_TURN_FIXED_BYTES);
+
+        // 对象个数：每个标题一个加粗、一个放大样式，没有其他样式
+        int start = index.getChapter(1).getStartIndex();
+        int[] titleRanges = index.getTitleRanges(start, start + SCREEN_CHARS);
+        assertTrue(titleRanges.length > 0);
+        PreparedPage prepared = PreparedPage.prepare(document, start, start + SCREEN_CHARS, titleRanges, params);
+        assertEquals(titleRanges.length, prepared.text.getSpans(0, prepared.text.length(), Object.class).length);
+    }
+
+    @Test
+    public void fontChange() {
+        int page = 1;
+        int[] size = {18};
+        int[] chars = {0};
+        long bytes = measure(() -> {
+            size[0] = size[0] == 18 ? 20 : 18;
+            textView.setTextSize(size[0]);
+            ScreenPaginator paginator = new ScreenPaginator(document, textView, textView.getHeight(),
+                    (p, screens) -> {
+                    });
+            chars[0] = 0;
+            for (int p = page - 1; p <= page + 1; p++) {
+                int start = index.getPageStart(p);
+                int end = index.getPageEnd(p);
+                int[] screens = paginator.paginate(start, end, titleLength(start));
+                assertTrue(screens.length > 0);
+                assertEquals(start, screens[0]);
+                chars[0] += end - start;
+            }
+        });
+        assertBudget("fontChange", bytes, chars[0] * FONT_CHANGE_BYTES_PER_CHAR + FONT_CHANGE_FIXED_BYTES);
+    }
+
+    @Test
+    public void darkToggle() {
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+        int start = index.getPageStart(1);
+        PreparedPage prepared = PreparedPage.prepare(document, start, start + SCREEN_CHARS,
+                index.getTitleRanges(start, start + SCREEN_CHARS), params);
+        TextViewCompat.setPrecomputedText(textView, prepared.text);
+        CharSequence shown = textView.getText();
+        boolean[] dark = {false};
+        long bytes = measure(() -> {
+            dark[0] = !dark[0];
+            // 与 ReaderActivity.applyColors 相同
+            textView.setBackgroundColor(dark[0] ? 0xFF1E1E1E : 0xFFFFFFFF);
+            textView.setTextColor(dark[0] ? 0xFFC0C0C0 : 0xFF000000);
+        });
+        assertBudget("darkToggle", bytes, DARK_TOGGLE_BYTES);
+        // 对象个数：文本没有重新生成
+        assertSame(shown, textView.getText());
+    }
+
+    private int titleLength(int pageStart) {
+        int chapter = index.findChapter(pageStart);
+        if (chapter >= 0 && index.getChapter(chapter).getStartIndex() == pageStart) {
+            return index.getChapter(chapter).getTitle().length();
+        }
+        return 0;
+    }
+
+    /**
+     * 预热后重复执行 operation，返回每次平均分配的字节数
+     */
+    private long measure(Runnable operation) {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < REPEAT; i++) {
+            operation.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / REPEAT;
+    }
+
+    private static void assertBudget(String name, long bytes, long budget) {
+        System.out.println(String.format("%-12s %10d B/op (budget %d)", name, bytes, budget));
+        assertTrue(name + ": " + bytes + " B/op > " + budget, bytes <= budget);
+    }
+
+    private static void layout(View view) {
+        int width = View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY);
+        int height = View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY);
+        view.measure(width, height);
+        view.layout(0, 0, 1080, 1920);
+    }
+
+    // 20 章、每章约 3000 字
+    private static String book() {
+        String paragraph = "　　天色渐暗，远处的山峦笼罩在一片薄雾之中。他站在城门口，望着来来往往的行人，"
+                + "心里想着明天该往哪里去。风从河面上吹过来，带着一点潮湿的凉意。\n";
+        StringBuilder sb = new StringBuilder();
+        for (int chapter = 1; chapter <= 20; chapter++) {
+            sb.append("第").append(chapter).append("章 风起\n");
+            for (int i = 0; i < 40; i++) {
+                sb.append(paragraph);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package org.twodays.easyreader.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * 基准测试用的合成语料：模仿常见的网络小说 txt（段首全角空格缩进、中文标点、
+ * “第X章”标题、偶尔出现以数字或年份开头的行），按固定种子生成，结果可重复。
+ * <p>
+ * 生成的文件缓存在 java.io.tmpdir/easyreader-jmh 中，同样的参数只生成一次。
+ */
+final class Corpus {
+
+    static final String FEW = "few";    // 全书 12 章，长章节需要按 MAX_PAGE_CHARS 拆页
+    static final String MANY = "many";  // 约 3000 字一章
+
+    private static final String HAN = "的一是不了人我在有他这中大来上国个到说们为子和你地出道也时年得就那要下以生会"
+            + "自着去之过家学对可她里后小么心多天而能好都然没日于起还发成事只作当想看文无开手十用主行方又如前所本见经"
+            + "头面公同三已老从动两长知民样现分将外但身些与高意进把法此实回二理美点月明其种声全工己话儿者向情部正名定"
+            + "女问力机给等几很业最间新什打便位因重被走电四第门相次东政海口使教西再平真听世气信北少关并内加化由却代军"
+            + "产入先山五太水万市眼体别处总才场师书比住员九笑性通目华报立马命张活难神数件安表原车白应路期叫死常提感金"
+            + "何更反合放做系计或司利受光王果亲界及今京务制解各任至清物台象记边共风战干接它许八特觉望直服毛林题建南度";
+    private static final String PUNCTUATION = "，，，。。！？；：";
+
+    private Corpus() {
+    }
+
+    /**
+     * 取得语料文件，不存在时生成：megabytes 为目标大小，encoding 为 UTF-8 或 GBK，chapters 为 FEW 或 MANY
+     */
+    static synchronized File get(int megabytes, String encoding, String chapters) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "easyreader-jmh");
+        File file = new File(dir, megabytes + "mb-" + encoding + "-" + chapters + ".txt");
+        if (file.exists()) {
+            return file;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        // 先写临时文件，中断时不会留下不完整的语料
+        File tmp = new File(dir, file.getName() + ".tmp");
+        generate(tmp, megabytes * 1024L * 1024L, Charset.forName(encoding), FEW.equals(chapters));
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmp);
+        }
+        return file;
+    }
+
+    private static void generate(File file, long targetBytes, Charset charset, boolean few) throws IOException {
+        Random random = new Random(42);
+        // 汉字在 UTF-8 中 3 字节，GBK 中 2 字节
+        int hanBytes = "UTF-8".equals(charset.name()) ? 3 : 2;
+        long chapterBytes = few ? targetBytes / 12 : 3000L * hanBytes;
+        long written = 0;
+        long nextChapter = 0;
+        int chapter = 0;
+        StringBuilder line = new StringBuilder(512);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charset), 1 << 16)) {
+            while (written < targetBytes) {
+                line.setLength(0);
+                if (written >= nextChapter) {
+                    chapter++;
+                    line.append("\r\n第").append(chapter < 10000 ? chineseNumber(chapter) : String.valueOf(chapter))
+                            .append("章 ");
+                    appendHan(line, random, 2 + random.nextInt(6));
+                    nextChapter += chapterBytes;
+                } else if (random.nextInt(40) == 0) {
+                    // 以数字开头但不是章节的行：年份、列表
+                    line.append(random.nextBoolean() ? 1900 + random.nextInt(200) + "年，" : random.nextInt(10) + ". ");
+                    appendParagraph(line, random);
+                } else {
+                    line.append("　　");
+                    appendParagraph(line, random);
+                }
+                line.append("\r\n");
+                out.append(line);
+                written += encodedLength(line, hanBytes);
+            }
+        }
+    }
+
+    private static void appendParagraph(StringBuilder sb, Random random) {
+        int sentences = 1 + random.nextInt(6);
+        for (int i = 0; i < sentences; i++) {
+            if (random.nextInt(8) == 0) {
+                sb.append('“');
+                appendHan(sb, random, 4 + random.nextInt(20));
+                sb.append("！”");
+            } else {
+                appendHan(sb, random, 6 + random.nextInt(30));
+                sb.append(PUNCTUATION.charAt(random.nextInt(PUNCTUATION.length())));
+            }
+            if (random.nextInt(30) == 0) {
+                sb.append(" Chapter ").append(random.nextInt(1000)).append(' ');
+            }
+        }
+    }
+
+    private static void appendHan(StringBuilder sb, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(HAN.charAt(random.nextInt(HAN.length())));
+        }
+    }
+
+    private static long encodedLength(CharSequence s, int hanBytes) {
+        long n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            n += s.charAt(i) < 0x80 ? 1 : hanBytes;
+        }
+        return n;
+    }
+
+    /**
+     * 1-9999 的中文数字（一百二十三）
+     */
+    static String chineseNumber(int n) {
+        final String digits = "零一二三四五六七八九";
+        final String units = "千百十";
+        StringBuilder sb = new StringBuilder();
+        boolean zero = false;
+        for (int unit = 1000, u = 0; unit > 0; unit /= 10, u++) {
+            int d = n / unit % 10;
+            if (d == 0) {
+                zero = sb.length() > 0;
+                continue;
+            }
+            if (zero) {
+                sb.append('零');
+                zero = false;
+            }
+            if (!(d == 1 && unit == 10 && sb.length() == 0)) {
+                sb.append(digits.charAt(d));
+            }
+            if (unit > 1) {
+                sb.append(units.charAt(u));
+            }
+        }
+        return sb.toString();
+    }
+}
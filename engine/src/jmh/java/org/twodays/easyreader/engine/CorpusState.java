@@ -0,0 +1,33 @@
+package org.twodays.easyreader.engine;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 语料参数：1 / 20 / 100 MB × UTF-8 / GBK × 章节少 / 章节多
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param({"1", "20", "100"})
+    public int megabytes;
+
+    @Param({"UTF-8", "GBK"})
+    public String encoding;
+
+    @Param({Corpus.FEW, Corpus.MANY})
+    public String chapters;
+
+    File file;
+
+    @Setup(Level.Trial)
+    public void createCorpus() throws IOException {
+        file = Corpus.get(megabytes, encoding, chapters);
+    }
+}
@@ -0,0 +1,36 @@
+package org.twodays.easyreader.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 打开并逐块解码整本书，建立块索引（加载书籍时的第一步）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecodeBenchmark {
+
+    @Benchmark
+    public int decode(CorpusState corpus) throws IOException {
+        try (TextDocument document = TextDocument.open(corpus.file, corpus.encoding)) {
+            document.scan(null, null);
+            return document.length();
+        }
+    }
+
+    /**
+     * 包括自动检测编码
+     */
+    @Benchmark
+    public int detectAndDecode(CorpusState corpus) throws IOException {
+        try (TextDocument document = TextDocument.open(corpus.file, null)) {
+            document.scan(null, null);
+            return document.length();
+        }
+    }
+}
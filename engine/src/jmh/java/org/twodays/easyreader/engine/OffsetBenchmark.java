@@ -0,0 +1,89 @@
+package org.twodays.easyreader.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 偏移换算：字节偏移 ↔ 字符偏移（恢复和保存阅读位置）、字符偏移 → 页码 / 章节（跳转、目录）。
+ * 每次调用查找 {@link #LOOKUPS} 个随机位置，结果为单次查找的时间
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OffsetBenchmark {
+
+    static final int LOOKUPS = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Scanned {
+        TextDocument document;
+        PageIndex index;
+        int[] charOffsets;
+        long[] byteOffsets;
+
+        @Setup(Level.Trial)
+        public void scan(CorpusState corpus) throws IOException {
+            document = TextDocument.open(corpus.file, corpus.encoding);
+            BookScanner scanner = new BookScanner();
+            document.scan(scanner::feed, null);
+            scanner.finish(document.length());
+            index = new PageIndex();
+            index.addChapters(scanner.takeNewChapters());
+            index.addPages(scanner.takeNewPages(), scanner.getPagesEnd());
+
+            Random random = new Random(7);
+            charOffsets = new int[LOOKUPS];
+            byteOffsets = new long[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                charOffsets[i] = random.nextInt(document.length());
+                byteOffsets[i] = (long) (random.nextDouble() * document.getByteLength());
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            document.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long charOffsetOf(Scanned s) {
+        long sum = 0;
+        for (long offset : s.byteOffsets) {
+            sum += s.document.charOffsetOf(offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long byteOffsetOf(Scanned s) {
+        long sum = 0;
+        for (int offset : s.charOffsets) {
+            sum += s.document.byteOffsetOf(offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long findPageAndChapter(Scanned s) {
+        long sum = 0;
+        for (int offset : s.charOffsets) {
+            sum += s.index.findPage(offset) + s.index.findChapter(offset);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,123 @@
+package org.twodays.easyreader.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 阅读时的热点路径（引擎部分），固定使用 20 MB、章节多的语料。
+ * 每次操作分配的字节数（gc.alloc.rate.norm）由 checkAllocationBudgets 对照 alloc-budgets.properties 检查。
+ * <ul>
+ *     <li>翻屏：页码查找 + 标题范围 + 取出一屏文本（解码窗口内）</li>
+ *     <li>字号变化：分屏结果全部作废，当前页面先从阅读位置显示到页末</li>
+ *     <li>重新分屏一页：取出整页文本交给 StaticLayout 分屏；字号变化后当前和前后两页各执行一次
+ *     （与 ReaderActivity 相同），单独测量以免三页的分配掩盖显示当前页的分配</li>
+ *     <li>章节跳转：目录定位 + 取出章节开头一屏（需要解码新的块）</li>
+ * </ul>
+ * 这里只包含引擎部分：字号本身只影响应用中的 SpannableString、样式、PrecomputedText 和 StaticLayout，
+ * 这些依赖 Android，由应用模块的 ReadingAllocationTest（Robolectric）测量，深色模式切换也在那里。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadingPathBenchmark {
+
+    static final int SCREEN_CHARS = 600; // 一屏大约的字数
+
+    @State(Scope.Thread)
+    public static class Book {
+        @Param({"UTF-8", "GBK"})
+        public String encoding;
+
+        TextDocument document;
+        PageIndex index;
+        int readingOffset;
+        int page;
+        final Random random = new Random(11);
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            document = TextDocument.open(Corpus.get(20, encoding, Corpus.MANY), encoding);
+            BookScanner scanner = new BookScanner();
+            document.scan(scanner::feed, null);
+            scanner.finish(document.length());
+            index = new PageIndex();
+            index.addChapters(scanner.takeNewChapters());
+            index.addPages(scanner.takeNewPages(), scanner.getPagesEnd());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            document.close();
+        }
+    }
+
+    @Benchmark
+    public int pageTurn(Book book) {
+        PageIndex index = book.index;
+        int page = index.findPage(book.readingOffset);
+        if (page == -1) {
+            page = 0;
+        }
+        int start = Math.max(book.readingOffset, index.getPageStart(page));
+        int end = Math.min(start + SCREEN_CHARS, index.getPageEnd(page));
+        int[] titleRanges = index.getTitleRanges(start, end);
+        String text = book.document.getText(start, end);
+        book.readingOffset = end < index.getPagesEnd() ? end : 0;
+        return text.length() + titleRanges.length;
+    }
+
+    @Benchmark
+    public int fontChange(Book book) {
+        PageIndex index = book.index;
+        int page = index.findPage(book.readingOffset);
+        if (page == -1) {
+            page = 0;
+        }
+        // 尚未分屏：从阅读位置显示到页末
+        int start = Math.max(book.readingOffset, index.getPageStart(page));
+        int end = index.getPageEnd(page);
+        int[] titleRanges = index.getTitleRanges(start, end);
+        String text = book.document.getText(start, end);
+        // 下一次字号变化时在后面一屏
+        book.readingOffset = start + SCREEN_CHARS < index.getPagesEnd() ? start + SCREEN_CHARS : 0;
+        return text.length() + titleRanges.length;
+    }
+
+    @Benchmark
+    public int repaginatePage(Book book) {
+        // 重新分屏一个页面（ReaderActivity.requestScreens，字号变化后当前和前后两页各一次）
+        PageIndex index = book.index;
+        int page = book.page;
+        book.page = page + 1 < index.getPageCount() ? page + 1 : 0; // 相邻页面在解码窗口内
+        int pageStart = index.getPageStart(page);
+        int length = 0;
+        int chapter = index.findChapter(pageStart);
+        if (chapter >= 0 && index.getChapter(chapter).getStartIndex() == pageStart) {
+            length += index.getChapter(chapter).getTitle().length();
+        }
+        return length + book.document.getText(pageStart, index.getPageEnd(page)).length();
+    }
+
+    @Benchmark
+    public int chapterJump(Book book) {
+        PageIndex index = book.index;
+        int chapter = book.random.nextInt(index.getChapterCount());
+        int page = index.getChapterPage(chapter);
+        int start = index.getChapter(chapter).getStartIndex();
+        int end = Math.min(start + SCREEN_CHARS, index.getPageEnd(page));
+        int[] titleRanges = index.getTitleRanges(start, end);
+        String text = book.document.getText(start, end);
+        return text.length() + titleRanges.length + page;
+    }
+}
@@ -0,0 +1,76 @@
+package org.twodays.easyreader.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 章节识别和分页：文本预先解码到内存，按与 {@link TextDocument#scan} 相同的块输入，不计解码时间
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Blocks {
+        List<char[]> blocks;
+        int length;
+
+        @Setup(Level.Trial)
+        public void decode(CorpusState corpus) throws IOException {
+            List<char[]> list = new ArrayList<>();
+            try (TextDocument document = TextDocument.open(corpus.file, corpus.encoding)) {
+                document.scan((chars, length, charStart) -> {
+                    char[] copy = new char[length];
+                    System.arraycopy(chars, 0, copy, 0, length);
+                    list.add(copy);
+                }, null);
+                length = document.length();
+            }
+            blocks = list;
+        }
+
+        @TearDown(Level.Trial)
+        public void release() {
+            blocks = null;
+        }
+    }
+
+    @Benchmark
+    public int scanChapters(Blocks text) {
+        ChapterScanner scanner = new ChapterScanner();
+        int start = 0;
+        for (char[] block : text.blocks) {
+            scanner.feed(block, block.length, start);
+            start += block.length;
+        }
+        scanner.finish();
+        return scanner.getCount();
+    }
+
+    /**
+     * 章节识别 + 按章节分页（加载时 BookLoader 做的全部工作，不含解码）
+     */
+    @Benchmark
+    public int paginate(Blocks text) {
+        BookScanner scanner = new BookScanner();
+        int start = 0;
+        for (char[] block : text.blocks) {
+            scanner.feed(block, block.length, start);
+            start += block.length;
+        }
+        scanner.finish(text.length);
+        return scanner.getPageCount();
+    }
+}
@@ -0,0 +1,272 @@
+package org.twodays.easyreader.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩存储：导入时把原文件按 {@link #CHUNK_BYTES} 切成定长的块，每块单独 Deflate 压缩，
+ * 保存到应用私有目录（见 BookStorage）。读取时只解压覆盖所需字节区间的块，
+ * 既减少占用空间，也减少每页从存储读取的字节数。
+ * <p>
+ * 保存的是原始字节，阅读位置（字节偏移）、编码切换和 {@link TextDocument} 的块索引都不受影响；
+ * 字符偏移到字节偏移仍由 TextDocument 的块索引二分查找完成，字节偏移到压缩块是一次除法。
+ * <p>
+ * 文件格式：16 字节文件头（魔数、版本、尾部偏移）+ 各块压缩数据 + 尾部
+ * （原文件大小、修改时间、检测出的编码、各块在文件中的偏移）。
+ * <p>
+ * 解压使用的 Inflater 占用 native 内存，不再使用时调用 {@link #close()}（由 {@link TextDocument#close()} 调用）。
+ */
+public class BlockStore implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger("BlockStore");
+
+    private static final int MAGIC = 0x45524253;       // "ERBS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    static final int CHUNK_BYTES = 64 * 1024;
+    private static final int CACHED_CHUNKS = 4;        // 保留解压结果的块数
+    public static final String SUFFIX = ".ezb";
+
+    private final ByteBuffer file;                     // 压缩文件（内存映射）
+    private final int size;                            // 原文件字节数
+    private final long lastModified;                   // 原文件修改时间
+    private final CharsetDetector.Result detected;     // 导入时检测出的编码
+    private final long[] chunkOffsets;                 // 长度为块数+1
+    private Inflater inflater = new Inflater(true);    // 关闭后为 null
+
+    // 最近解压的块（LRU）
+    private final LinkedHashMap<Integer, byte[]> chunks = new LinkedHashMap<Integer, byte[]>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > CACHED_CHUNKS;
+        }
+    };
+
+    /**
+     * 压缩块无法解压：文件被截断或损坏
+     */
+    public static class CorruptedBlockException extends IllegalStateException {
+        CorruptedBlockException(int index, Throwable cause) {
+            super("Corrupted block " + index, cause);
+        }
+    }
+
+    private BlockStore(ByteBuffer file, int size, long lastModified, CharsetDetector.Result detected,
+                       long[] chunkOffsets) {
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.detected = detected;
+        this.chunkOffsets = chunkOffsets;
+    }
+
+    public static BlockStore open(File path) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException("Not a block store: " + path);
+            }
+            long trailer = raf.readLong();
+            channel.position(trailer);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int size = in.readInt();
+            long lastModified = in.readLong();
+            CharsetDetector.Result detected = new CharsetDetector.Result(in.readUTF(), in.readInt());
+            long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, trailer);
+            return new BlockStore(file, size, lastModified, detected, offsets);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public CharsetDetector.Result getDetected() {
+        return detected;
+    }
+
+    byte get(int index) {
+        return chunk(index / CHUNK_BYTES)[index % CHUNK_BYTES];
+    }
+
+    /**
+     * 字节区间 [start, end)，position 为 0；只在一个块内时不复制
+     */
+    ByteBuffer range(int start, int end) {
+        int first = start / CHUNK_BYTES;
+        int last = (end - 1) / CHUNK_BYTES;
+        if (end <= start) {
+            return ByteBuffer.allocate(0);
+        }
+        if (first == last) {
+            return ByteBuffer.wrap(chunk(first), start % CHUNK_BYTES, end - start).slice();
+        }
+        byte[] out = new byte[end - start];
+        int pos = start;
+        while (pos < end) {
+            int index = pos / CHUNK_BYTES;
+            int from = pos % CHUNK_BYTES;
+            int n = Math.min(CHUNK_BYTES - from, end - pos);
+            System.arraycopy(chunk(index), from, out, pos - start, n);
+            pos += n;
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    private synchronized byte[] chunk(int index) {
+        byte[] bytes = chunks.get(index);
+        if (bytes != null) {
+            return bytes;
+        }
+        int compressedLength = (int) (chunkOffsets[index + 1] - chunkOffsets[index]);
+        byte[] compressed = new byte[compressedLength];
+        ByteBuffer in = file.duplicate();
+        in.position((int) chunkOffsets[index]);
+        in.get(compressed);
+        bytes = new byte[Math.min(CHUNK_BYTES, size - index * CHUNK_BYTES)];
+        // 关闭后仍有读取（例如后台搜索尚未结束）时临时创建一个，用完释放
+        Inflater decompressor = inflater != null ? inflater : new Inflater(true);
+        decompressor.reset();
+        decompressor.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < bytes.length && !decompressor.finished()) {
+                int read = decompressor.inflate(bytes, n, bytes.length - n);
+                if (read == 0 && (decompressor.needsInput() || decompressor.needsDictionary())) {
+                    break; // 压缩数据不完整，不会再有输出
+                }
+                n += read;
+            }
+            if (n < bytes.length) {
+                throw new CorruptedBlockException(index, null);
+            }
+        } catch (DataFormatException e) {
+            throw new CorruptedBlockException(index, e);
+        } finally {
+            if (decompressor != inflater) {
+                decompressor.end();
+            }
+        }
+        chunks.put(index, bytes);
+        return bytes;
+    }
+
+    /**
+     * 释放 Inflater 的 native 内存和解压缓存
+     */
+    @Override
+    public synchronized void close() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        chunks.clear();
+    }
+
+    /**
+     * 把 in 的全部内容压缩保存为 target（先写临时文件，完成后改名），detected 为检测出的编码，返回原文件大小
+     */
+    public static long compress(InputStream in, CharsetDetector.Result detected, File target) throws IOException {
+        long lastModified = System.currentTimeMillis();
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File temp = new File(target.getPath() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        long size = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            channel.position(HEADER_BYTES);
+            long[] offsets = new long[16];
+            int count = 0;
+            byte[] chunk = new byte[CHUNK_BYTES];
+            byte[] compressed = new byte[CHUNK_BYTES + CHUNK_BYTES / 8 + 64];
+            int n;
+            while ((n = readFully(in, chunk)) > 0) {
+                if (count + 2 > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[count++] = channel.position();
+                deflater.reset();
+                deflater.setInput(chunk, 0, n);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(compressed);
+                    ByteBuffer out = ByteBuffer.wrap(compressed, 0, length);
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                }
+                size += n;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + size);
+            }
+            long trailer = channel.position();
+            offsets[count] = trailer;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt((int) size);
+            out.writeLong(lastModified);
+            out.writeUTF(detected.encoding);
+            out.writeInt(detected.confidence);
+            out.writeInt(count + 1);
+            for (int i = 0; i <= count; i++) {
+                out.writeLong(offsets[i]);
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(trailer).flip();
+            channel.write(header, 0);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot rename " + temp);
+        }
+        LOG.fine("Compressed " + size + " bytes into " + target.length());
+        return size;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int read = in.read(buffer, n, buffer.length - n);
+            if (read == -1) {
+                break;
+            }
+            n += read;
+        }
+        return n;
+    }
+}
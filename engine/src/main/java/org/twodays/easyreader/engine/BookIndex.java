@@ -0,0 +1,53 @@
+package org.twodays.easyreader.engine;
+
+import java.util.List;
+
+/**
+ * 书籍索引：块索引、章节列表和页面边界。
+ * 以 (书籍ID, 编码, 文件大小, 修改时间) 为键缓存在 books.db 中，文件或编码变化后失效。
+ */
+public class BookIndex {
+    public final String encoding;
+    public final long fileSize;
+    public final long lastModified;
+    public final int charCount;
+    public final int[] blockByteStarts;   // 长度为块数+1，最后一项是文件末尾
+    public final int[] blockCharStarts;   // 长度为块数+1，最后一项是总字符数
+    public final List<Chapter> chapters;
+    public final int[] pageStarts;        // 页面连续排列：第 i 页结束于第 i+1 页的起点
+
+    public BookIndex(String encoding, long fileSize, long lastModified, int charCount,
+                     int[] blockByteStarts, int[] blockCharStarts,
+                     List<Chapter> chapters, int[] pageStarts) {
+        this.encoding = encoding;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.charCount = charCount;
+        this.blockByteStarts = blockByteStarts;
+        this.blockCharStarts = blockCharStarts;
+        this.chapters = chapters;
+        this.pageStarts = pageStarts;
+    }
+
+    /**
+     * 所有页面都不超过 maxPageChars 个字符（页面大小不同的设置下生成的索引需要重新分页）
+     */
+    public boolean fitsPageSize(int maxPageChars) {
+        for (int i = 0; i < pageStarts.length; i++) {
+            int end = i + 1 < pageStarts.length ? pageStarts[i + 1] : charCount;
+            if (end - pageStarts[i] > maxPageChars) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 缓存是否仍然适用于当前文件和编码
+     */
+    public boolean matches(String encoding, long fileSize, long lastModified) {
+        return this.encoding.equals(encoding)
+                && this.fileSize == fileSize
+                && this.lastModified == lastModified;
+    }
+}
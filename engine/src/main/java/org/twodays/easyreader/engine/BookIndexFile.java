@@ -0,0 +1,117 @@
+package org.twodays.easyreader.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预先生成的索引文件（&lt;书名&gt;.txt.ezi，与书籍放在同一目录）：由 {@link PreIndexer} 在电脑上批量生成，
+ * 导入时读入 books.db 的索引缓存，第一次打开不再扫描。
+ * <p>
+ * 文件复制到设备后修改时间通常会变化，所以用文件大小和开头 64KB 的 CRC32 确认是同一个文件，
+ * 读入时换成设备上的修改时间。
+ * <pre>
+ * int magic, int version, UTF encoding, long fileSize, int headChecksum, int charCount,
+ * int[] blockByteStarts, int[] blockCharStarts, int chapterCount, (UTF title, int start)*, int[] pageStarts
+ * </pre>
+ * 数组都以长度开头。
+ */
+public final class BookIndexFile {
+
+    public static final String SUFFIX = ".ezi";
+
+    private static final int MAGIC = 0x45524958;       // "ERIX"
+    private static final int VERSION = 1;
+
+    private BookIndexFile() {
+    }
+
+    /**
+     * 写入 target（先写临时文件再改名），headChecksum 见 {@link TextDocument#getHeadChecksum}
+     */
+    public static void write(File target, BookIndex index, int headChecksum) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(index.encoding);
+            out.writeLong(index.fileSize);
+            out.writeInt(headChecksum);
+            out.writeInt(index.charCount);
+            writeInts(out, index.blockByteStarts);
+            writeInts(out, index.blockCharStarts);
+            out.writeInt(index.chapters.size());
+            for (Chapter chapter : index.chapters) {
+                out.writeUTF(chapter.getTitle());
+                out.writeInt(chapter.getStartIndex());
+            }
+            writeInts(out, index.pageStarts);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(target)) {
+            // Windows 上不能覆盖已有文件
+            if (!target.delete() || !tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Cannot rename " + tmp + " to " + target);
+            }
+        }
+    }
+
+    /**
+     * 读取索引，文件不是同一个文件或编码不同时返回 null；返回的索引使用 doc 的修改时间
+     */
+    public static BookIndex read(InputStream in, TextDocument doc) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not an index file");
+        }
+        String encoding = data.readUTF();
+        long fileSize = data.readLong();
+        int headChecksum = data.readInt();
+        if (!encoding.equals(doc.getEncoding()) || fileSize != doc.getByteLength()
+                || headChecksum != doc.getHeadChecksum()) {
+            return null;
+        }
+        int charCount = data.readInt();
+        int[] blockByteStarts = readInts(data);
+        int[] blockCharStarts = readInts(data);
+        int chapterCount = data.readInt();
+        List<Chapter> chapters = new ArrayList<>(chapterCount);
+        for (int i = 0; i < chapterCount; i++) {
+            String title = data.readUTF();
+            chapters.add(new Chapter(title, data.readInt(), "chapter_" + i));
+        }
+        int[] pageStarts = readInts(data);
+        if (blockByteStarts.length != blockCharStarts.length || blockByteStarts.length == 0
+                || blockByteStarts[blockByteStarts.length - 1] > fileSize
+                || blockCharStarts[blockCharStarts.length - 1] != charCount) {
+            throw new IOException("Corrupted index file");
+        }
+        return new BookIndex(encoding, fileSize, doc.getLastModified(), charCount,
+                blockByteStarts, blockCharStarts, chapters, pageStarts);
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+}
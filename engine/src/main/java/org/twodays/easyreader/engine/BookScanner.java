@@ -0,0 +1,151 @@
+package org.twodays.easyreader.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 章节识别 + 分页：逐块输入解码后的文本（{@link TextDocument#scan} 的回调），
+ * 用 {@link ChapterScanner} 找出章节，再按章节把全文切分为页面。
+ * <p>
+ * 页面与章节对齐，每页最多 maxPageChars 个字符（默认 {@link #MAX_PAGE_CHARS}，章节过长时拆分）；
+ * 当前章节尚未结束时只切出完整的页，剩余部分留到后面。
+ * 新增的章节和页面可以随时用 {@link #takeNewChapters}、{@link #takeNewPages} 取出。
+ */
+public class BookScanner {
+
+    public static final int MAX_PAGE_CHARS = 20000; // 默认单页最大字符数（当章节过长时拆分）
+
+    private final int maxPageChars;
+    private final ChapterScanner scanner = new ChapterScanner();
+    private final List<Chapter> chapters = new ArrayList<>();
+    private int[] pageStarts = new int[256];
+    private int pageCount = 0;
+    private int pagedUpTo = 0;          // 已生成页面的结束位置
+    private int publishedChapters = 0;  // 已取出的章节数
+    private int publishedPages = 0;     // 已取出的页数
+
+    // 累计耗时（纳秒），用于性能诊断
+    private long chapterNanos = 0;
+    private long pageNanos = 0;
+
+    public BookScanner() {
+        this(MAX_PAGE_CHARS);
+    }
+
+    /**
+     * maxPageChars 为单页最大字符数，低内存设备使用较小的页面（分屏时一次排版的文本更少）
+     */
+    public BookScanner(int maxPageChars) {
+        this.maxPageChars = maxPageChars;
+    }
+
+    /**
+     * 输入下一段文本，charStart 必须等于上一段的结束位置
+     */
+    public void feed(char[] chars, int length, int charStart) {
+        long begin = System.nanoTime();
+        int scanned = scanner.getCount();
+        scanner.feed(chars, length, charStart);
+        chapterNanos += System.nanoTime() - begin;
+        collectChapters(scanned);
+        // 当前章节中已经足够一整页的部分可以先分页（不越过尚未确定的候选章节）
+        int pending = scanner.getPendingStart();
+        appendPages(pending >= 0 ? Math.min(pending, charStart + length) : charStart + length, false);
+    }
+
+    /**
+     * 全文输入完毕，length 为总字符数
+     */
+    public void finish(int length) {
+        int scanned = scanner.getCount();
+        scanner.finish();
+        collectChapters(scanned);
+        appendPages(length, true);
+    }
+
+    /**
+     * 把扫描器中从 from 开始的新章节加入列表，并结束上一章节的分页
+     */
+    private void collectChapters(int from) {
+        for (int i = from; i < scanner.getCount(); i++) {
+            int start = scanner.getStart(i);
+            if (chapters.isEmpty() && start > 0) {
+                // 添加“前言”章节，起始索引为0
+                chapters.add(new Chapter("前言", 0, "chapter_0"));
+            }
+            chapters.add(new Chapter(scanner.getTitle(i), start, "chapter_" + chapters.size()));
+            // 上一章节到此结束
+            appendPages(start, true);
+        }
+    }
+
+    /**
+     * 把 [pagedUpTo, end) 切分为页面：每段最多 maxPageChars 个字符；
+     * 章节未结束时（segmentEnd 为 false）只切出完整的页，剩余部分留到后面
+     */
+    private void appendPages(int end, boolean segmentEnd) {
+        long begin = System.nanoTime();
+        while (pagedUpTo < end) {
+            int pageEnd = Math.min(pagedUpTo + maxPageChars, end);
+            if (!segmentEnd && pageEnd - pagedUpTo < maxPageChars) {
+                break;
+            }
+            if (pageCount == pageStarts.length) {
+                pageStarts = Arrays.copyOf(pageStarts, pageCount * 2);
+            }
+            pageStarts[pageCount++] = pagedUpTo;
+            pagedUpTo = pageEnd;
+        }
+        pageNanos += System.nanoTime() - begin;
+    }
+
+    /**
+     * 取出上次取出之后新识别的章节
+     */
+    public List<Chapter> takeNewChapters() {
+        if (publishedChapters == chapters.size()) {
+            return Collections.emptyList();
+        }
+        List<Chapter> list = new ArrayList<>(chapters.subList(publishedChapters, chapters.size()));
+        publishedChapters = chapters.size();
+        return list;
+    }
+
+    /**
+     * 取出上次取出之后新生成的页面起点
+     */
+    public int[] takeNewPages() {
+        int[] starts = Arrays.copyOfRange(pageStarts, publishedPages, pageCount);
+        publishedPages = pageCount;
+        return starts;
+    }
+
+    /**
+     * 已分页部分的结束位置
+     */
+    public int getPagesEnd() {
+        return pagedUpTo;
+    }
+
+    public List<Chapter> getChapters() {
+        return chapters;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int[] getPageStarts() {
+        return Arrays.copyOf(pageStarts, pageCount);
+    }
+
+    public long getChapterNanos() {
+        return chapterNanos;
+    }
+
+    public long getPageNanos() {
+        return pageNanos;
+    }
+}
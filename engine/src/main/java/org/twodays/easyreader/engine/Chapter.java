@@ -1,4 +1,4 @@
-package org.twodays.easyreader;
+package org.twodays.easyreader.engine;
 
 /**
  * 章节信息类
@@ -0,0 +1,190 @@
+package org.twodays.easyreader.engine;
+
+import java.util.Arrays;
+
+/**
+ * 章节扫描器：单次向前扫描，只在行首检查章节标题，不使用正则。
+ * <p>
+ * 识别规则与原来的两个正则完全一致：
+ * <ul>
+ *     <li>{@code ^\s*第[一二三四五六七八九十百千万0-9]+[章节]}</li>
+ *     <li>{@code ^\s*[0-9]{2,}}，四位数且在 1900-2099 之间的视为年份跳过</li>
+ * </ul>
+ * 行首空白可以跨越空行，章节起点是这段空白所在的第一个行首。
+ * 文本可以分块输入（块之间必须连续），结果按起点顺序存放在基本类型数组中。
+ */
+public class ChapterScanner {
+
+    private static final int STATE_BLANK = 0;    // 行首空白中，可能是章节
+    private static final int STATE_CHINESE = 1;  // 已读到“第”，正在读数字
+    private static final int STATE_DIGIT = 2;    // 正在读阿拉伯数字
+    private static final int STATE_SKIP = 3;     // 本行不是章节，等待下一行
+
+    private static final int PREV_NONE = 0;
+    private static final int PREV_LINE_END = 1;  // 上一个字符是行结束符
+    private static final int PREV_CR = 2;        // 上一个字符是 '\r'（与后面的 '\n' 组成一个行结束符）
+
+    private int[] starts = new int[64];
+    private String[] titles = new String[64];
+    private int count = 0;
+
+    private int state = STATE_BLANK;
+    private int prev = PREV_LINE_END;            // 文本开头视为行首
+    private int candidate = 0;                   // 当前候选章节的起点
+    private int numerals = 0;                    // “第”之后已读的数字个数
+    private final StringBuilder token = new StringBuilder();
+    private int position = 0;                    // 下一个输入字符的全文偏移
+
+    /**
+     * 输入下一段文本，charStart 必须等于上一段的结束位置
+     */
+    public void feed(char[] chars, int length, int charStart) {
+        if (charStart != position) {
+            throw new IllegalArgumentException("Non-contiguous input at " + charStart + ", expected " + position);
+        }
+        int state = this.state;
+        int prev = this.prev;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (prev != PREV_NONE && (prev == PREV_LINE_END || c != '\n')) {
+                // 行首
+                if (state == STATE_SKIP) {
+                    state = STATE_BLANK;
+                    candidate = charStart + i;
+                }
+            } else if (state == STATE_SKIP) {
+                // 快速跳到下一个行结束符
+                while (i < length - 1 && !isLineEnd(c)) {
+                    c = chars[++i];
+                }
+            }
+
+            switch (state) {
+                case STATE_BLANK:
+                    if (isSpace(c)) {
+                        break;
+                    }
+                    if (c == '第') {
+                        state = STATE_CHINESE;
+                        numerals = 0;
+                        token.setLength(0);
+                        token.append(c);
+                    } else if (c >= '0' && c <= '9') {
+                        state = STATE_DIGIT;
+                        token.setLength(0);
+                        token.append(c);
+                    } else {
+                        state = STATE_SKIP;
+                    }
+                    break;
+                case STATE_CHINESE:
+                    if (isChineseNumeral(c)) {
+                        numerals++;
+                        token.append(c);
+                    } else {
+                        if ((c == '章' || c == '节') && numerals > 0) {
+                            token.append(c);
+                            add(candidate, token.toString());
+                        }
+                        state = STATE_SKIP;
+                    }
+                    break;
+                case STATE_DIGIT:
+                    if (c >= '0' && c <= '9') {
+                        token.append(c);
+                    } else {
+                        finishDigits();
+                        state = STATE_SKIP;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            prev = c == '\r' ? PREV_CR : isLineEnd(c) ? PREV_LINE_END : PREV_NONE;
+        }
+        this.state = state;
+        this.prev = prev;
+        position = charStart + length;
+    }
+
+    /**
+     * 输入结束：处理停在文本末尾的数字标题
+     */
+    public void finish() {
+        if (state == STATE_DIGIT) {
+            finishDigits();
+        }
+        state = STATE_SKIP;
+    }
+
+    /**
+     * 仍可能成为章节的候选起点，没有时返回 -1。
+     * 该位置之前的文本不会再出现新的章节。
+     */
+    public int getPendingStart() {
+        return state == STATE_SKIP ? -1 : candidate;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public String getTitle(int index) {
+        return titles[index];
+    }
+
+    private void finishDigits() {
+        int length = token.length();
+        if (length < 2) {
+            return;
+        }
+        // 过滤四位数字且值在1900-2099之间（年份）
+        if (length == 4) {
+            int num = (token.charAt(0) - '0') * 1000 + (token.charAt(1) - '0') * 100
+                    + (token.charAt(2) - '0') * 10 + (token.charAt(3) - '0');
+            if (num >= 1900 && num <= 2099) {
+                return;
+            }
+        }
+        add(candidate, token.toString());
+    }
+
+    private void add(int start, String title) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            titles = Arrays.copyOf(titles, count * 2);
+        }
+        starts[count] = start;
+        titles[count] = title;
+        count++;
+    }
+
+    // 与正则 \s 相同：[ \t\n\x0B\f\r]
+    private static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    // 与正则 MULTILINE 模式下的行结束符相同；汉字等大多数字符只需一次比较
+    private static boolean isLineEnd(char c) {
+        if (c > '\u2029') {
+            return false;
+        }
+        return c <= '\r' ? (c == '\n' || c == '\r') : (c == '\u0085' || c == '\u2028' || c == '\u2029');
+    }
+
+    private static boolean isChineseNumeral(char c) {
+        switch (c) {
+            case '一': case '二': case '三': case '四': case '五':
+            case '六': case '七': case '八': case '九': case '十':
+            case '百': case '千': case '万':
+                return true;
+            default:
+                return c >= '0' && c <= '9';
+        }
+    }
+}
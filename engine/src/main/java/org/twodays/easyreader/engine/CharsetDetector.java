@@ -0,0 +1,295 @@
+package org.twodays.easyreader.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 编码检测：对文件开头、中间、结尾各取一段字节做统计，
+ * 在 UTF-8（含/不含 BOM）、UTF-16LE/BE、GBK、BIG5、ISO-8859-1 中选出最可能的编码。
+ */
+public final class CharsetDetector {
+
+    static final int SAMPLE_BYTES = 16 * 1024;   // 每段采样字节数
+
+    /**
+     * 检测结果：编码名称 + 置信度（0-100）
+     */
+    public static final class Result {
+        public final String encoding;
+        public final int confidence;
+
+        public Result(String encoding, int confidence) {
+            this.encoding = encoding;
+            this.confidence = confidence;
+        }
+
+        @Override
+        public String toString() {
+            return encoding + " (" + confidence + "%)";
+        }
+    }
+
+    private CharsetDetector() {
+    }
+
+    /**
+     * 检测不可映射的输入流：只读取开头部分
+     */
+    public static Result detect(InputStream in) throws IOException {
+        byte[] buf = new byte[SAMPLE_BYTES * 3];
+        int length = 0;
+        int n;
+        while (length < buf.length && (n = in.read(buf, length, buf.length - length)) != -1) {
+            length += n;
+        }
+        return detect(ByteBuffer.wrap(buf, 0, length).slice());
+    }
+
+    /**
+     * 检测整个缓冲区（只读取开头、中间、结尾三段样本）
+     */
+    public static Result detect(ByteBuffer data) {
+        ByteBuffer bytes = data.duplicate();
+        int size = bytes.limit();
+        int b0 = size > 0 ? bytes.get(0) & 0xFF : -1;
+        int b1 = size > 1 ? bytes.get(1) & 0xFF : -1;
+        int b2 = size > 2 ? bytes.get(2) & 0xFF : -1;
+
+        // 1. BOM
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            return new Result("UTF-8", 100);
+        }
+        if (b0 == 0xFF && b1 == 0xFE) {
+            return new Result("UTF-16LE", 100);
+        }
+        if (b0 == 0xFE && b1 == 0xFF) {
+            return new Result("UTF-16BE", 100);
+        }
+
+        Stats stats = new Stats();
+        if (size <= SAMPLE_BYTES * 3) {
+            stats.add(bytes, 0, size, true);
+        } else {
+            int middle = (size / 2) & ~1;
+            int end = (size - SAMPLE_BYTES) & ~1;
+            stats.add(bytes, 0, SAMPLE_BYTES, true);
+            stats.add(bytes, middle, middle + SAMPLE_BYTES, false);
+            stats.add(bytes, end, size, false);
+        }
+        return stats.decide();
+    }
+
+    /**
+     * 采样统计
+     */
+    private static final class Stats {
+        long total;              // 采样字节数
+        long highBytes;          // >= 0x80 的字节数
+
+        // UTF-8
+        long utf8Sequences;      // 合法的多字节序列
+        long utf8Errors;
+
+        // 双字节编码（GBK / BIG5）
+        long pairs;              // 双字节字符数
+        long highTrails;         // 第二字节 >= 0xA1
+        long lowTrails;          // 第二字节在 0x40-0x7E
+        long gbkErrors;
+        long big5Errors;
+
+        // UTF-16
+        long units;              // 双字节单元数
+        long evenZeros;          // 偶数位置的 0 字节
+        long oddZeros;           // 奇数位置的 0 字节
+        long cjkLE;              // 按小端解释落在常用字符区的单元
+        long cjkBE;
+
+        void add(ByteBuffer bytes, int start, int end, boolean atStart) {
+            int from = start;
+            if (!atStart) {
+                // 从换行符之后开始，避免从半个字符中间开始统计
+                for (int i = start; i < end && i < start + 512; i++) {
+                    if (bytes.get(i) == '\n') {
+                        from = i + 1;
+                        break;
+                    }
+                }
+            }
+            total += end - from;
+            countUtf16(bytes, start, end);
+            countUtf8(bytes, from, end);
+            countDoubleByte(bytes, from, end);
+        }
+
+        private void countUtf16(ByteBuffer bytes, int start, int end) {
+            for (int i = start; i + 1 < end; i += 2) {
+                int a = bytes.get(i) & 0xFF;
+                int b = bytes.get(i + 1) & 0xFF;
+                units++;
+                if (a == 0) evenZeros++;
+                if (b == 0) oddZeros++;
+                if (isCommonUnit((b << 8) | a)) cjkLE++;
+                if (isCommonUnit((a << 8) | b)) cjkBE++;
+            }
+        }
+
+        // 常用字符：ASCII 可见字符与空白、CJK 标点、常用汉字、全角符号
+        private static boolean isCommonUnit(int u) {
+            return (u >= 0x20 && u < 0x7F) || u == '\n' || u == '\r' || u == '\t'
+                    || (u >= 0x3000 && u <= 0x303F) || (u >= 0x4E00 && u <= 0x9FFF)
+                    || (u >= 0xFF00 && u <= 0xFFEF) || u == 0x2026 || u == 0x201C || u == 0x201D;
+        }
+
+        private void countUtf8(ByteBuffer bytes, int start, int end) {
+            int i = start;
+            // 跳过开头的后续字节
+            while (i < end && (bytes.get(i) & 0xC0) == 0x80) {
+                i++;
+            }
+            while (i < end) {
+                int b = bytes.get(i) & 0xFF;
+                if (b < 0x80) {
+                    i++;
+                    continue;
+                }
+                highBytes++;
+                int need;
+                if (b >= 0xC2 && b <= 0xDF) {
+                    need = 1;
+                } else if (b >= 0xE0 && b <= 0xEF) {
+                    need = 2;
+                } else if (b >= 0xF0 && b <= 0xF4) {
+                    need = 3;
+                } else {
+                    utf8Errors++;
+                    i++;
+                    continue;
+                }
+                if (i + need >= end) {
+                    break; // 样本末尾不完整的序列不计
+                }
+                boolean valid = true;
+                for (int k = 1; k <= need; k++) {
+                    if ((bytes.get(i + k) & 0xC0) != 0x80) {
+                        valid = false;
+                        break;
+                    }
+                }
+                if (valid) {
+                    utf8Sequences++;
+                    highBytes += need;
+                    i += need + 1;
+                } else {
+                    utf8Errors++;
+                    i++;
+                }
+            }
+        }
+
+        private void countDoubleByte(ByteBuffer bytes, int start, int end) {
+            int i = start;
+            while (i < end) {
+                int lead = bytes.get(i) & 0xFF;
+                if (lead < 0x80) {
+                    i++;
+                    continue;
+                }
+                if (i + 1 >= end) {
+                    break;
+                }
+                int trail = bytes.get(i + 1) & 0xFF;
+                if (lead == 0x80 || lead == 0xFF) {
+                    gbkErrors++;
+                    big5Errors++;
+                    i++;
+                    continue;
+                }
+                pairs++;
+                if (trail < 0x40 || trail == 0x7F || trail == 0xFF) {
+                    gbkErrors++;
+                }
+                if (trail < 0x40 || (trail > 0x7E && trail < 0xA1) || trail == 0xFF) {
+                    big5Errors++;
+                }
+                if (trail >= 0xA1) {
+                    highTrails++;
+                } else if (trail >= 0x40 && trail <= 0x7E) {
+                    lowTrails++;
+                }
+                i += trail < 0x40 ? 1 : 2;
+            }
+        }
+
+        Result decide() {
+            // 2. 无 BOM 的 UTF-16（西文为主）：大量位置固定的 0 字节
+            if (units >= 16) {
+                double even = (double) evenZeros / units;
+                double odd = (double) oddZeros / units;
+                if (odd > 0.2 && even < 0.02) {
+                    return new Result("UTF-16LE", percent(odd, 0.2, 95));
+                }
+                if (even > 0.2 && odd < 0.02) {
+                    return new Result("UTF-16BE", percent(even, 0.2, 95));
+                }
+            }
+
+            // 3. 纯 ASCII：任何 ASCII 兼容编码都能正确解码
+            if (highBytes == 0) {
+                return new Result("UTF-8", total > 0 ? 60 : 0);
+            }
+
+            // 无 BOM 的 UTF-16（中文为主）：几乎全部单元都是常用字符
+            if (units >= 16) {
+                double le = (double) cjkLE / units;
+                double be = (double) cjkBE / units;
+                if (le > 0.95 && le > be + 0.3) {
+                    return new Result("UTF-16LE", percent(le, 0.95, 90));
+                }
+                if (be > 0.95 && be > le + 0.3) {
+                    return new Result("UTF-16BE", percent(be, 0.95, 90));
+                }
+            }
+
+            // 4. UTF-8：多字节序列全部（或几乎全部）合法
+            long utf8Total = utf8Sequences + utf8Errors;
+            if (utf8Sequences > 0 && utf8Errors * 100 <= utf8Total) {
+                int confidence = utf8Errors == 0 ? 99 : 85;
+                if (utf8Sequences < 10) {
+                    confidence -= 20;
+                }
+                return new Result("UTF-8", confidence);
+            }
+
+            // 5. 双字节编码：GBK 的第二字节几乎都 >= 0xA1，BIG5 约有一半在 0x40-0x7E
+            if (pairs > 0) {
+                double gbkError = (double) gbkErrors / pairs;
+                double big5Error = (double) big5Errors / pairs;
+                double high = (double) highTrails / pairs;
+                double low = (double) lowTrails / pairs;
+                if (gbkError < 0.02 && high > 0.85) {
+                    // GBK 是 GB2312 的超集，统一按 GBK 解码
+                    int confidence = percent(high, 0.85, 98) - (int) (gbkError * 1000);
+                    return new Result("GBK", lowConfidenceIfFew(confidence));
+                }
+                if (big5Error < 0.02 && low > 0.2 && high > 0.3) {
+                    int confidence = percent(1 - big5Error, 0.98, 95);
+                    return new Result("BIG5", lowConfidenceIfFew(confidence));
+                }
+            }
+
+            // 6. 其余情况：单字节西文编码，任何字节都能解码
+            return new Result("ISO-8859-1", 30);
+        }
+
+        private int lowConfidenceIfFew(int confidence) {
+            return pairs < 20 ? confidence - 25 : confidence;
+        }
+
+        // 把 [threshold, 1] 的比例映射到 [50, max]
+        private static int percent(double value, double threshold, int max) {
+            double scaled = (Math.min(1, value) - threshold) / (1 - threshold);
+            return (int) Math.round(50 + Math.max(0, scaled) * (max - 50));
+        }
+    }
+}
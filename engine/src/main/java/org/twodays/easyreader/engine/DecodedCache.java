@@ -0,0 +1,296 @@
+package org.twodays.easyreader.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 解码后文本的磁盘缓存（缓存目录由调用者指定）：GBK、BIG5 等多字节编码每次解码都比较慢，
+ * 第一次完整扫描时把统一换行后的文本以 UTF-16LE 保存，之后打开时内存映射该文件，
+ * 按字符偏移直接读取所需的块，不再解码原文件。
+ * <p>
+ * 文件格式：16 字节文件头（魔数、版本、尾部偏移）+ 文本（每字符 2 字节）+ 尾部
+ * （来源标识、编码、文件大小、修改时间、块索引、章节起点）。以 (来源标识, 编码) 为文件名，
+ * 以 (文件大小, 修改时间) 校验；总大小超过 {@link #MAX_TOTAL_BYTES} 时删除最久未使用的文件。
+ */
+public class DecodedCache {
+
+    private static final Logger LOG = Logger.getLogger("DecodedCache");
+
+    private static final int MAGIC = 0x45524443;       // "ERDC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    public static final long MAX_TOTAL_BYTES = 128L * 1024 * 1024;
+    private static final String SUFFIX = ".dec";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long STALE_TEMP_MS = 24L * 60 * 60 * 1000; // 超过一天的临时文件是中途退出留下的
+
+    private final CharBuffer text;                     // 只读，整本书的字符
+    final int[] blockByteStarts;
+    final int[] blockCharStarts;
+    final int[] chapterStarts;
+
+    private DecodedCache(CharBuffer text, int[] blockByteStarts, int[] blockCharStarts, int[] chapterStarts) {
+        this.text = text;
+        this.blockByteStarts = blockByteStarts;
+        this.blockCharStarts = blockCharStarts;
+        this.chapterStarts = chapterStarts;
+    }
+
+    /**
+     * 只缓存解码开销大的多字节编码；UTF-8/UTF-16/单字节编码直接解码原文件即可
+     */
+    public static boolean isWorthCaching(String encoding) {
+        String name = encoding.toUpperCase();
+        return !name.startsWith("UTF-") && !name.equals("ISO-8859-1") && !name.equals("US-ASCII");
+    }
+
+    /**
+     * 字符区间 [start, end)
+     */
+    char[] read(int start, int end) {
+        char[] chars = new char[end - start];
+        CharBuffer view = text.duplicate();
+        view.position(start);
+        view.get(chars);
+        return chars;
+    }
+
+    /**
+     * 打开 dir 中与来源文件（key 为来源标识，如 URI）匹配的缓存，不存在、已过期或损坏时返回 null
+     */
+    public static DecodedCache open(File dir, String key, String encoding, long fileSize, long lastModified) {
+        File file = getFile(dir, key, encoding);
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                return null;
+            }
+            long trailer = raf.readLong();
+            channel.position(trailer);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (!in.readUTF().equals(key) || !in.readUTF().equals(encoding)
+                    || in.readLong() != fileSize || in.readLong() != lastModified) {
+                return null;
+            }
+            int[] byteStarts = readInts(in);
+            int[] charStarts = readInts(in);
+            int[] chapterStarts = readInts(in);
+            int charCount = charStarts[charStarts.length - 1];
+            if (HEADER_BYTES + charCount * 2L != trailer) {
+                return null;
+            }
+            CharBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, charCount * 2L)
+                    .order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+            file.setLastModified(System.currentTimeMillis()); // LRU：记录最近使用时间
+            return new DecodedCache(text, byteStarts, charStarts, chapterStarts);
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Open decoded cache failed: " + file, e);
+            return null;
+        }
+    }
+
+    static File getFile(File dir, String key, String encoding) {
+        return new File(dir, hash(key) + "_" + encoding.replaceAll("[^A-Za-z0-9-]", "") + SUFFIX);
+    }
+
+    /**
+     * 删除来源文件的全部缓存（各种编码），书籍从书架删除时调用
+     */
+    public static void delete(File dir, String key) {
+        String prefix = hash(key) + "_";
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().startsWith(prefix) && f.getName().endsWith(SUFFIX) && f.delete()) {
+                LOG.fine("Deleted " + f.getName());
+            }
+        }
+    }
+
+    private static String hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(Charset.forName("UTF-8")));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(s.hashCode());
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * 删除最久未使用的缓存，直到总大小不超过上限（keep 不删除）。
+     * 正在写入的临时文件不计入也不删除，只清理中途退出留下的旧临时文件
+     */
+    static void trim(File dir, File keep) {
+        File[] all = dir.listFiles();
+        if (all == null) {
+            return;
+        }
+        File[] files = new File[all.length];
+        int count = 0;
+        long now = System.currentTimeMillis();
+        for (File f : all) {
+            if (!f.getName().endsWith(TEMP_SUFFIX)) {
+                files[count++] = f;
+            } else if (now - f.lastModified() > STALE_TEMP_MS && f.delete()) {
+                LOG.fine("Deleted stale " + f.getName());
+            }
+        }
+        files = Arrays.copyOf(files, count);
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= MAX_TOTAL_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (total <= MAX_TOTAL_BYTES) {
+                break;
+            }
+            if (f.equals(keep)) {
+                continue;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+                LOG.fine("Evicted " + f.getName());
+            }
+        }
+    }
+
+    /**
+     * 顺序写入一本书的缓存：先写到临时文件，{@link #finish} 时写入尾部并改名，中途放弃时删除。
+     * 每个 Writer 使用自己的临时文件，同一本书同时有两个写入者（阅读和导入）时互不影响，后完成的覆盖先完成的
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final File temp;
+        private final String key;
+        private final String encoding;
+        private final long fileSize;
+        private final long lastModified;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(128 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean finished = false;
+
+        public Writer(File dir, String key, TextDocument doc) throws IOException {
+            this.file = getFile(dir, key, doc.getEncoding());
+            this.key = key;
+            this.encoding = doc.getEncoding();
+            this.fileSize = doc.getByteLength();
+            this.lastModified = doc.getLastModified();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            temp = File.createTempFile(file.getName() + ".", TEMP_SUFFIX, dir);
+            raf = new RandomAccessFile(temp, "rw");
+            channel = raf.getChannel();
+            channel.position(HEADER_BYTES);
+        }
+
+        public void append(char[] chars, int length) throws IOException {
+            int pos = 0;
+            while (pos < length) {
+                int n = Math.min(length - pos, buffer.remaining() / 2);
+                buffer.asCharBuffer().put(chars, pos, n);
+                buffer.position(buffer.position() + n * 2);
+                pos += n;
+                if (buffer.remaining() < 2) {
+                    flushBuffer();
+                }
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        public void finish(int[] blockByteStarts, int[] blockCharStarts, List<Chapter> chapters) throws IOException {
+            flushBuffer();
+            long trailer = channel.position();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeUTF(key);
+            out.writeUTF(encoding);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            writeInts(out, blockByteStarts);
+            writeInts(out, blockCharStarts);
+            int[] chapterStarts = new int[chapters.size()];
+            for (int i = 0; i < chapterStarts.length; i++) {
+                chapterStarts[i] = chapters.get(i).getStartIndex();
+            }
+            writeInts(out, chapterStarts);
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(trailer).flip();
+            channel.write(header, 0);
+            raf.close();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+            finished = true;
+            LOG.fine("Saved " + file.getName() + " (" + file.length() + " bytes)");
+            trim(file.getParentFile(), file);
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+                temp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.twodays.easyreader.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 页面/章节索引：页面和章节的起点保存在 int 数组中（按字符偏移递增），
+ * 字符偏移 → 页码、页面 → 章节范围、章节 → 页码 都用二分查找完成。
+ * <p>
+ * 页面连续排列：第 i 页结束于第 i+1 页的起点，最后一页结束于 {@link #getPagesEnd()}。
+ * 只在主线程使用。
+ */
+public class PageIndex {
+
+    private int[] pageStarts = new int[256];
+    private int pageCount = 0;
+    private int pagesEnd = 0;
+
+    private int[] chapterStarts = new int[64];
+    private final List<Chapter> chapters = new ArrayList<>();
+
+    public void clear() {
+        pageCount = 0;
+        pagesEnd = 0;
+        chapters.clear();
+    }
+
+    /**
+     * 追加页面：starts 为新页面的起点，end 为最后一个新页面的结束位置
+     */
+    public void addPages(int[] starts, int end) {
+        if (starts.length == 0) {
+            return;
+        }
+        if (pageCount + starts.length > pageStarts.length) {
+            pageStarts = Arrays.copyOf(pageStarts, Math.max(pageStarts.length * 2, pageCount + starts.length));
+        }
+        System.arraycopy(starts, 0, pageStarts, pageCount, starts.length);
+        pageCount += starts.length;
+        pagesEnd = end;
+    }
+
+    /**
+     * 追加章节（按起点顺序）
+     */
+    public void addChapters(List<Chapter> newChapters) {
+        int count = chapters.size();
+        if (count + newChapters.size() > chapterStarts.length) {
+            chapterStarts = Arrays.copyOf(chapterStarts, Math.max(chapterStarts.length * 2, count + newChapters.size()));
+        }
+        for (Chapter chapter : newChapters) {
+            chapterStarts[count++] = chapter.getStartIndex();
+        }
+        chapters.addAll(newChapters);
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getPageStart(int page) {
+        return pageStarts[page];
+    }
+
+    public int getPageEnd(int page) {
+        return page + 1 < pageCount ? pageStarts[page + 1] : pagesEnd;
+    }
+
+    /**
+     * 已分页部分的结束位置
+     */
+    public int getPagesEnd() {
+        return pagesEnd;
+    }
+
+    /**
+     * 包含该字符偏移的页码；偏移尚未分页时返回 -1
+     */
+    public int findPage(int offset) {
+        if (pageCount == 0 || offset >= pagesEnd) {
+            return -1;
+        }
+        return Math.max(floor(pageStarts, pageCount, offset), 0);
+    }
+
+    public int getChapterCount() {
+        return chapters.size();
+    }
+
+    public Chapter getChapter(int index) {
+        return chapters.get(index);
+    }
+
+    /**
+     * 包含该字符偏移的章节（起点不大于 offset 的最后一章）；在第一章之前返回 -1
+     */
+    public int findChapter(int offset) {
+        return floor(chapterStarts, chapters.size(), offset);
+    }
+
+    /**
+     * 第一个起点不小于 offset 的章节；没有时返回章节总数
+     */
+    public int firstChapterFrom(int offset) {
+        return floor(chapterStarts, chapters.size(), offset - 1) + 1;
+    }
+
+    /**
+     * 章节所在的页码；尚未分页时返回 -1
+     */
+    public int getChapterPage(int chapter) {
+        return findPage(chapterStarts[chapter]);
+    }
+
+    /**
+     * 与 [start, end) 相交的章节标题范围（相对 start，起止位置成对排列），只检查与该区间相交的章节
+     */
+    public int[] getTitleRanges(int start, int end) {
+        int firstChapter = Math.max(findChapter(start), 0);
+        int lastChapter = firstChapterFrom(end);
+        int[] ranges = new int[Math.max(lastChapter - firstChapter, 0) * 2];
+        int count = 0;
+        for (int i = firstChapter; i < lastChapter; i++) {
+            Chapter chapter = chapters.get(i);
+            int chapterStart = chapter.getStartIndex();
+            int chapterEnd = chapterStart + chapter.getTitle().length();
+            int localStart = Math.max(chapterStart - start, 0);
+            int localEnd = Math.min(chapterEnd, end) - start;
+            if (localStart < localEnd) {
+                ranges[count++] = localStart;
+                ranges[count++] = localEnd;
+            }
+        }
+        return count == ranges.length ? ranges : Arrays.copyOf(ranges, count);
+    }
+
+    // 最后一个不大于 key 的元素下标，没有时返回 -1
+    private static int floor(int[] starts, int count, int key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+}
@@ -0,0 +1,159 @@
+package org.twodays.easyreader.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量预处理书库（命令行）：遍历目录中的 .txt 文件，在所有 CPU 核心上并行检测编码、
+ * 识别章节并分页（与应用中的 {@link BookScanner} 相同），在每本书旁边写入 {@link BookIndexFile}。
+ * 导入应用时读入这些索引，第一次打开不再扫描。
+ * <p>
+ * 每处理完一本书输出一行耗时和吞吐量，最后输出汇总；有失败时退出码为 1。
+ * <pre>
+ * easyreader-preindex [-j 线程数] [-e 编码] [-f] 目录或文件...
+ *   -j  并行线程数，默认为 CPU 核心数
+ *   -e  指定编码，默认自动检测
+ *   -f  重新生成已存在且比书籍新的索引
+ * </pre>
+ */
+public final class PreIndexer {
+
+    private final String encoding;   // null 表示自动检测
+    private final boolean force;
+
+    private final AtomicInteger indexed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();   // 各文件耗时之和
+
+    private PreIndexer(String encoding, boolean force) {
+        this.encoding = encoding;
+        this.force = force;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String encoding = null;
+        boolean force = false;
+        List<File> roots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-j".equals(arg) && i + 1 < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            } else if ("-e".equals(arg) && i + 1 < args.length) {
+                encoding = args[++i];
+            } else if ("-f".equals(arg)) {
+                force = true;
+            } else if (arg.startsWith("-")) {
+                usage();
+                return;
+            } else {
+                roots.add(new File(arg));
+            }
+        }
+        if (roots.isEmpty()) {
+            usage();
+            return;
+        }
+
+        List<File> files = new ArrayList<>();
+        for (File root : roots) {
+            collect(root, files);
+        }
+        PreIndexer indexer = new PreIndexer(encoding, force);
+        long begin = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (File file : files) {
+            pool.execute(() -> indexer.index(file));
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        long wall = System.nanoTime() - begin;
+        indexer.printSummary(files.size(), threads, wall);
+        System.exit(indexer.failed.get() > 0 ? 1 : 0);
+    }
+
+    private static void usage() {
+        System.err.println("用法: easyreader-preindex [-j 线程数] [-e 编码] [-f] 目录或文件...");
+    }
+
+    /**
+     * 递归收集 .txt 文件（忽略隐藏文件和目录）
+     */
+    private static void collect(File file, List<File> out) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (!child.getName().startsWith(".")) {
+                    collect(child, out);
+                }
+            }
+        } else if (file.getName().toLowerCase(Locale.ROOT).endsWith(".txt")) {
+            out.add(file);
+        }
+    }
+
+    private void index(File file) {
+        File target = new File(file.getPath() + BookIndexFile.SUFFIX);
+        if (!force && target.lastModified() >= file.lastModified()) {
+            skipped.incrementAndGet();
+            return;
+        }
+        long begin = System.nanoTime();
+        try (TextDocument document = TextDocument.open(file, encoding)) {
+            BookScanner scanner = new BookScanner();
+            document.scan(scanner::feed, null);
+            scanner.finish(document.length());
+            BookIndex index = new BookIndex(document.getEncoding(), document.getByteLength(),
+                    document.getLastModified(), document.length(),
+                    document.getBlockByteStarts(), document.getBlockCharStarts(),
+                    scanner.getChapters(), scanner.getPageStarts());
+            BookIndexFile.write(target, index, document.getHeadChecksum());
+
+            long elapsed = System.nanoTime() - begin;
+            indexed.incrementAndGet();
+            bytes.addAndGet(document.getByteLength());
+            nanos.addAndGet(elapsed);
+            print(String.format(Locale.US, "%8.1f ms %8.1f MB/s %9.1f MB  %-8s %6d 章 %7d 页  %s",
+                    elapsed / 1e6, mbPerSecond(document.getByteLength(), elapsed), mb(document.getByteLength()),
+                    document.getEncoding(), scanner.getChapters().size(), scanner.getPageCount(), file));
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            print("失败: " + file + ": " + e);
+        }
+    }
+
+    private void printSummary(int total, int threads, long wall) {
+        long totalBytes = bytes.get();
+        print(String.format(Locale.US,
+                "共 %d 个文件：处理 %d，跳过 %d，失败 %d；%.1f MB，用时 %.2f s（%d 线程），"
+                        + "总吞吐 %.1f MB/s，单线程平均 %.1f MB/s",
+                total, indexed.get(), skipped.get(), failed.get(), mb(totalBytes), wall / 1e9, threads,
+                mbPerSecond(totalBytes, wall), mbPerSecond(totalBytes, nanos.get())));
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return nanos > 0 ? mb(bytes) / (nanos / 1e9) : 0;
+    }
+
+    // 多个线程同时输出，每行一次写入
+    private static synchronized void print(String line) {
+        System.out.println(line);
+    }
+}
@@ -0,0 +1,651 @@
+package org.twodays.easyreader.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 文本文档：通过 FileChannel 内存映射打开文件，按块建立“字节偏移 ↔ 字符偏移”索引，
+ * 只解码当前阅读位置附近的块（滑动窗口），不再把整本书读成一个字符串。
+ * <p>
+ * 块总是在换行符之后切分，因此每个块都可以独立解码；页面和章节使用的字符偏移
+ * 通过块索引换算为文件中的字节位置。
+ * <p>
+ * 存在 {@link DecodedCache} 时块的文本直接从缓存读取，不再解码原文件。
+ * 压缩导入的书籍从 {@link BlockStore} 读取字节，只解压所需的块。
+ */
+public class TextDocument implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger("TextDocument");
+
+    static final int BLOCK_BYTES = 64 * 1024;              // 目标块大小（字节）
+    private static final int MAX_BLOCK_BYTES = 256 * 1024; // 找不到换行时的强制切分上限
+    private static final int WINDOW_BLOCKS = 6;            // 解码窗口中默认保留的块数
+
+    /**
+     * 扫描回调：每解码一个块调用一次，chars 只在回调期间有效
+     */
+    public interface BlockListener {
+        void onBlock(char[] chars, int length, int charStart);
+    }
+
+    /**
+     * 取消检查：已取消时抛出异常，扫描在下一个块处停止
+     */
+    public interface Cancellation {
+        void throwIfCanceled();
+    }
+
+    private final ByteBuffer data;      // 文件内容（内存映射），压缩存储时为 null
+    private final BlockStore store;     // 压缩存储，直接映射时为 null
+    private final int size;             // 文件字节数
+    private final String encoding;
+    private CharsetDetector.Result detected;     // 自动检测结果，指定编码打开时为 null
+    private final long lastModified;    // 文件修改时间（毫秒），未知时为 0
+    private final Charset charset;
+    private final int dataStart;        // 跳过 BOM 后的起始字节
+    private final int unitSize;         // 换行符占用的字节数（UTF-16 为 2）
+    private final boolean bigEndian;
+    private DecodedCache decoded;       // 解码后文本的缓存，没有时为 null
+
+    // 诊断计数（见 Diagnostics）：解码的字节数、得到的字符数、从解码缓存读取的字符数
+    private final AtomicLong bytesDecoded = new AtomicLong();
+    private final AtomicLong charsDecoded = new AtomicLong();
+    private final AtomicLong cacheChars = new AtomicLong();
+
+    // 块索引：第 i 块覆盖字节 [blockByteStarts[i], blockByteStarts[i+1])，字符 [blockCharStarts[i], blockCharStarts[i+1])
+    private int[] blockByteStarts = new int[0];
+    private int[] blockCharStarts = new int[0];
+    private int blockCount = 0;
+    private int charCount = 0;
+
+    private int windowBlocks = WINDOW_BLOCKS;
+
+    // 解码窗口中的块的解码缓冲区（持有锁时使用）
+    private char[] scratch = new char[0];
+
+    // 解码窗口：最近使用的块（LRU）
+    private final LinkedHashMap<Integer, char[]> window = new LinkedHashMap<Integer, char[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+            return size() > windowBlocks;
+        }
+    };
+
+    TextDocument(ByteBuffer data, String encoding, long lastModified) throws UnsupportedEncodingException {
+        this(data, null, encoding, lastModified);
+    }
+
+    TextDocument(BlockStore store, String encoding) throws UnsupportedEncodingException {
+        this(null, store, encoding, store.getLastModified());
+    }
+
+    private TextDocument(ByteBuffer data, BlockStore store, String encoding, long lastModified)
+            throws UnsupportedEncodingException {
+        this.data = data;
+        this.store = store;
+        this.size = store != null ? store.size() : data.limit();
+        int b0 = size > 0 ? byteAt(0) & 0xFF : -1;
+        int b1 = size > 1 ? byteAt(1) & 0xFF : -1;
+        int b2 = size > 2 ? byteAt(2) & 0xFF : -1;
+
+        String name = encoding.toUpperCase();
+        int start = 0;
+        if (name.startsWith("UTF-16")) {
+            boolean be;
+            if (b0 == 0xFE && b1 == 0xFF) {
+                be = true;
+                start = 2;
+            } else if (b0 == 0xFF && b1 == 0xFE) {
+                be = false;
+                start = 2;
+            } else {
+                be = !name.equals("UTF-16LE");
+            }
+            // 块从文件中间开始解码，必须使用不依赖 BOM 的字节序
+            name = be ? "UTF-16BE" : "UTF-16LE";
+            bigEndian = be;
+            unitSize = 2;
+        } else {
+            if (name.equals("UTF-8") && b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+                start = 3;
+            }
+            bigEndian = false;
+            unitSize = 1;
+        }
+        this.encoding = encoding;
+        this.lastModified = lastModified;
+        try {
+            this.charset = Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+        this.dataStart = start;
+    }
+
+    /**
+     * 打开本地文件（内存映射），encoding 为 null 时根据文件内容自动检测
+     */
+    public static TextDocument open(File file, String encoding) throws IOException {
+        ByteBuffer data;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            data = map(raf.getChannel(), raf.length());
+        }
+        return open(data, encoding, file.lastModified());
+    }
+
+    /**
+     * 使用已映射的文件内容，encoding 为 null 时根据内容自动检测
+     */
+    public static TextDocument open(ByteBuffer data, String encoding, long lastModified)
+            throws UnsupportedEncodingException {
+        CharsetDetector.Result detected = null;
+        if (encoding == null) {
+            detected = CharsetDetector.detect(data);
+            encoding = detected.encoding;
+        }
+        TextDocument document = new TextDocument(data, encoding, lastModified);
+        document.detected = detected;
+        return document;
+    }
+
+    /**
+     * 压缩存储的书籍：编码检测结果在导入时已保存
+     */
+    public static TextDocument open(BlockStore store, String encoding) throws UnsupportedEncodingException {
+        TextDocument document = new TextDocument(store, encoding != null ? encoding : store.getDetected().encoding);
+        document.detected = encoding == null ? store.getDetected() : null;
+        return document;
+    }
+
+    public static ByteBuffer map(FileChannel channel, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large: " + size);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * 顺序扫描整个文件建立块索引，同时把每个解码后的块交给 listener（可为 null）。
+     * 每个块扫描完成后立即加入索引，扫描过程中即可读取已扫描部分的文本。
+     */
+    public void scan(BlockListener listener, Cancellation signal) {
+        DecodedCache cache;
+        synchronized (this) {
+            cache = decoded;
+        }
+        if (cache != null) {
+            scanDecoded(cache, listener, signal);
+            return;
+        }
+        int[] byteStarts = new int[Math.max(16, size / BLOCK_BYTES + 2)];
+        int[] charStarts = new int[byteStarts.length];
+        int count = 0;
+        int chars = 0;
+        char[] buffer = new char[MAX_BLOCK_BYTES];
+        CharsetDecoder decoder = newDecoder();
+        byteStarts[0] = dataStart;
+
+        synchronized (this) {
+            blockByteStarts = byteStarts;
+            blockCharStarts = charStarts;
+            blockCount = 0;
+            charCount = 0;
+            window.clear();
+        }
+
+        int pos = dataStart;
+        while (pos < size) {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            int end = findBlockEnd(pos, decoder, buffer);
+            int length = decode(decoder, pos, end, buffer);
+            synchronized (this) {
+                if (count + 2 > byteStarts.length) {
+                    byteStarts = Arrays.copyOf(byteStarts, byteStarts.length * 2);
+                    charStarts = Arrays.copyOf(charStarts, charStarts.length * 2);
+                    blockByteStarts = byteStarts;
+                    blockCharStarts = charStarts;
+                }
+                byteStarts[count] = pos;
+                charStarts[count] = chars;
+                byteStarts[count + 1] = end;
+                charStarts[count + 1] = chars + length;
+                count++;
+                blockCount = count;
+                charCount = chars + length;
+            }
+            if (listener != null) {
+                listener.onBlock(buffer, length, chars);
+            }
+            chars += length;
+            pos = end;
+        }
+        LOG.fine("Scanned " + size + " bytes into " + count + " blocks, " + chars + " chars");
+    }
+
+    /**
+     * 有解码缓存时的扫描：块索引已知，逐块从缓存读出交给 listener
+     */
+    private void scanDecoded(DecodedCache cache, BlockListener listener, Cancellation signal) {
+        int count = cache.blockByteStarts.length - 1;
+        synchronized (this) {
+            blockByteStarts = cache.blockByteStarts;
+            blockCharStarts = cache.blockCharStarts;
+            blockCount = 0;
+            charCount = 0;
+            window.clear();
+        }
+        for (int i = 0; i < count; i++) {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            int start = cache.blockCharStarts[i];
+            int end = cache.blockCharStarts[i + 1];
+            synchronized (this) {
+                blockCount = i + 1;
+                charCount = end;
+            }
+            if (listener != null) {
+                char[] chars = readCache(cache, start, end);
+                listener.onBlock(chars, chars.length, start);
+            }
+        }
+        LOG.fine("Scanned " + count + " blocks from decoded cache");
+    }
+
+    /**
+     * 找到块的结束位置：目标大小之后的第一个换行符；超长行按字符边界强制切分
+     */
+    private int findBlockEnd(int start, CharsetDecoder decoder, char[] scratch) {
+        if (size - start <= BLOCK_BYTES) {
+            return size;
+        }
+        int limit = Math.min(size - unitSize + 1, start + MAX_BLOCK_BYTES);
+        for (int i = start + BLOCK_BYTES; i < limit; i++) {
+            if (isLineFeedAt(i)) {
+                return i + unitSize;
+            }
+        }
+        if (start + MAX_BLOCK_BYTES >= size) {
+            return size;
+        }
+        // 以非结束模式解码，解码器停在最后一个完整字符之后
+        ByteBuffer in = range(start, start + BLOCK_BYTES);
+        decoder.reset();
+        decoder.decode(in, CharBuffer.wrap(scratch), false);
+        return start + (in.position() > 0 ? in.position() : BLOCK_BYTES);
+    }
+
+    private boolean isLineFeedAt(int i) {
+        if (unitSize == 1) {
+            return byteAt(i) == '\n';
+        }
+        if (((i - dataStart) & 1) != 0) {
+            return false;
+        }
+        return bigEndian
+                ? byteAt(i) == 0 && byteAt(i + 1) == '\n'
+                : byteAt(i) == '\n' && byteAt(i + 1) == 0;
+    }
+
+    private byte byteAt(int i) {
+        return store != null ? store.get(i) : data.get(i);
+    }
+
+    /**
+     * 字节区间 [start, end)，position 为 0
+     */
+    private ByteBuffer range(int start, int end) {
+        if (store != null) {
+            return store.range(start, end);
+        }
+        ByteBuffer in = data.duplicate();
+        in.limit(end).position(start);
+        return in.slice();
+    }
+
+    private CharsetDecoder newDecoder() {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 解码字节区间 [start, end) 到 out，并把换行统一为 '\n'，返回字符数
+     */
+    private int decode(CharsetDecoder decoder, int start, int end, char[] out) {
+        ByteBuffer in = range(start, end);
+        CharBuffer chars = CharBuffer.wrap(out);
+        decoder.reset();
+        decoder.decode(in, chars, true);
+        decoder.flush(chars);
+        bytesDecoded.addAndGet(end - start);
+        charsDecoded.addAndGet(chars.position());
+        return normalizeLineBreaks(out, chars.position());
+    }
+
+    private char[] readCache(DecodedCache cache, int start, int end) {
+        cacheChars.addAndGet(end - start);
+        return cache.read(start, end);
+    }
+
+    /**
+     * 与 BufferedReader.readLine 保持一致："\r\n" 和单独的 '\r' 都视为一个 '\n'
+     */
+    private static int normalizeLineBreaks(char[] chars, int length) {
+        int w = 0;
+        for (int r = 0; r < length; r++) {
+            char c = chars[r];
+            if (c == '\r') {
+                if (r + 1 < length && chars[r + 1] == '\n') {
+                    continue;
+                }
+                c = '\n';
+            }
+            chars[w++] = c;
+        }
+        return w;
+    }
+
+    /**
+     * 取出字符区间 [start, end) 的文本，只解码覆盖该区间的块
+     */
+    public synchronized String getText(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(end, charCount);
+        if (start >= end) {
+            return "";
+        }
+        int block = findBlock(start);
+        if (end <= blockCharStarts[block + 1]) {
+            // 常见情况（翻屏）：区间在一个块内，直接复制一次
+            int blockStart = blockCharStarts[block];
+            return new String(getBlock(block), start - blockStart, end - start);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        int pos = start;
+        while (pos < end) {
+            char[] chars = getBlock(block);
+            int blockStart = blockCharStarts[block];
+            int from = pos - blockStart;
+            int to = Math.min(end, blockCharStarts[block + 1]) - blockStart;
+            sb.append(chars, from, to - from);
+            pos = blockStart + to;
+            block++;
+        }
+        return sb.toString();
+    }
+
+    private char[] getBlock(int index) {
+        char[] chars = window.get(index);
+        if (chars == null) {
+            if (decoded != null) {
+                chars = readCache(decoded, blockCharStarts[index], blockCharStarts[index + 1]);
+            } else {
+                int byteStart = blockByteStarts[index];
+                int byteEnd = blockByteStarts[index + 1];
+                // 先解码到可重复使用的缓冲区，窗口中只保存实际长度的副本
+                if (scratch.length < byteEnd - byteStart) {
+                    scratch = new char[byteEnd - byteStart];
+                }
+                int length = decode(newDecoder(), byteStart, byteEnd, scratch);
+                chars = Arrays.copyOf(scratch, length);
+            }
+            window.put(index, chars);
+        }
+        return chars;
+    }
+
+    /**
+     * 二分查找包含字符偏移 offset 的块
+     */
+    private int findBlock(int offset) {
+        int i = Arrays.binarySearch(blockCharStarts, 0, blockCount, offset);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        // 跳过解码后为空的块
+        while (i < blockCount - 1 && blockCharStarts[i + 1] <= offset) {
+            i++;
+        }
+        return Math.max(0, i);
+    }
+
+    public synchronized int length() {
+        return charCount;
+    }
+
+    public synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * 解码第 index 块的全部字符，不放入解码窗口（供搜索等顺序读取使用，不影响阅读位置附近的缓存）
+     */
+    public char[] readBlock(int index) {
+        int byteStart;
+        int byteEnd;
+        synchronized (this) {
+            if (decoded != null) {
+                return readCache(decoded, blockCharStarts[index], blockCharStarts[index + 1]);
+            }
+            byteStart = blockByteStarts[index];
+            byteEnd = blockByteStarts[index + 1];
+        }
+        char[] buffer = new char[byteEnd - byteStart];
+        int length = decode(newDecoder(), byteStart, byteEnd, buffer);
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * 文件中的字节偏移换算为字符偏移（恢复阅读位置），该位置尚未扫描时返回 -1。
+     * 只解码所在块中该位置之前的部分；落在多字节字符中间时取该字符之前的位置
+     */
+    public int charOffsetOf(long byteOffset) {
+        int byteStart;
+        int byteEnd;
+        int charStart;
+        int charEnd;
+        synchronized (this) {
+            if (byteOffset <= dataStart) {
+                return 0;
+            }
+            int scanned = blockCount == 0 ? dataStart : blockByteStarts[blockCount];
+            if (byteOffset >= scanned) {
+                return scanned == size ? charCount : -1;
+            }
+            int block = Arrays.binarySearch(blockByteStarts, 0, blockCount, (int) byteOffset);
+            if (block < 0) {
+                block = -block - 2;
+            }
+            byteStart = blockByteStarts[block];
+            byteEnd = blockByteStarts[block + 1];
+            charStart = blockCharStarts[block];
+            charEnd = blockCharStarts[block + 1];
+        }
+        int target = (int) byteOffset - byteStart;
+        ByteBuffer in = range(byteStart, byteEnd);
+        char[] buffer = new char[byteEnd - byteStart];
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        CharsetDecoder decoder = newDecoder();
+        in.limit(target);
+        decoder.decode(in, chars, false); // 非结束模式：不完整的字符留在输入中
+        // 留下的几个字节可能是非法字节：替换为 U+FFFD 时消耗多少字节要看后面的字节，
+        // 接上块的其余部分逐个字符继续解码，与 byteOffsetOf 的结果一致
+        in.limit(byteEnd - byteStart);
+        int length = chars.position();
+        while (in.position() < target && length < buffer.length) {
+            chars.limit(length + 1);
+            decoder.decode(in, chars, true);
+            if (chars.position() == length && length + 2 <= buffer.length) {
+                chars.limit(length + 2); // 代理对一次输出两个字符
+                decoder.decode(in, chars, true);
+            }
+            if (chars.position() == length || in.position() > target) {
+                break;
+            }
+            length = chars.position();
+        }
+        return Math.min(charStart + normalizeLineBreaks(buffer, length), charEnd);
+    }
+
+    /**
+     * 字符偏移换算为文件中的字节偏移（保存阅读位置），与字号、分页和编码无关。
+     * 重新解码所在块中该位置之前的原始字符（换行统一之前），取解码器消耗的字节数；
+     * 不能重新编码，非法字节替换成的 U+FFFD 编码后长度不同
+     */
+    public long byteOffsetOf(int charOffset) {
+        int byteStart;
+        int byteEnd;
+        int target;
+        synchronized (this) {
+            if (blockCount == 0 || charOffset <= 0) {
+                return dataStart;
+            }
+            if (charOffset >= charCount) {
+                return blockByteStarts[blockCount];
+            }
+            int block = findBlock(charOffset);
+            byteStart = blockByteStarts[block];
+            byteEnd = blockByteStarts[block + 1];
+            target = charOffset - blockCharStarts[block];
+        }
+        char[] raw = new char[byteEnd - byteStart];
+        CharBuffer chars = CharBuffer.wrap(raw);
+        CharsetDecoder decoder = newDecoder();
+        decoder.decode(range(byteStart, byteEnd), chars, true);
+        decoder.flush(chars);
+        int rawLength = chars.position();
+        // 找到第 target 个（统一换行后的）字符对应的原始位置："\r\n" 算一个字符
+        int r = 0;
+        for (int n = 0; n < target && r < rawLength; n++) {
+            r += raw[r] == '\r' && r + 1 < rawLength && raw[r + 1] == '\n' ? 2 : 1;
+        }
+        // 输出只容纳 r 个字符，解码器停在第 r 个字符之后
+        ByteBuffer in = range(byteStart, byteEnd);
+        decoder.reset();
+        decoder.decode(in, CharBuffer.wrap(raw, 0, r), true);
+        return byteStart + in.position();
+    }
+
+    /**
+     * 使用解码缓存：块索引与扫描结果相同，直接恢复
+     */
+    public synchronized void attachDecoded(DecodedCache cache) {
+        decoded = cache;
+        restoreBlocks(cache.blockByteStarts, cache.blockCharStarts);
+    }
+
+    /**
+     * 解码窗口中保留的块数（至少 2 块，跨块的一屏不会反复解码），低内存设备使用较小的窗口
+     */
+    public synchronized void setWindowBlocks(int blocks) {
+        windowBlocks = Math.max(2, blocks);
+    }
+
+    /**
+     * 释放解码窗口（内存紧张时），之后读取文本时按需重新解码
+     */
+    public synchronized void releaseWindow() {
+        window.clear();
+        scratch = new char[0];
+    }
+
+    public synchronized boolean hasDecodedCache() {
+        return decoded != null;
+    }
+
+    /**
+     * 使用缓存的块索引，跳过扫描
+     */
+    public synchronized void restoreBlocks(int[] byteStarts, int[] charStarts) {
+        blockByteStarts = byteStarts;
+        blockCharStarts = charStarts;
+        blockCount = byteStarts.length - 1;
+        charCount = charStarts[blockCount];
+        window.clear();
+    }
+
+    public synchronized int[] getBlockByteStarts() {
+        return Arrays.copyOf(blockByteStarts, blockCount + 1);
+    }
+
+    public synchronized int[] getBlockCharStarts() {
+        return Arrays.copyOf(blockCharStarts, blockCount + 1);
+    }
+
+    /**
+     * 已扫描（已建立索引）的字节数
+     */
+    public synchronized int getScannedBytes() {
+        return blockCount == 0 ? dataStart : blockByteStarts[blockCount];
+    }
+
+    public int getByteLength() {
+        return size;
+    }
+
+    /**
+     * 文件开头 64KB 的 CRC32，用于确认预先生成的索引（{@link BookIndexFile}）对应同一个文件
+     */
+    public int getHeadChecksum() {
+        ByteBuffer head = range(0, Math.min(size, BLOCK_BYTES));
+        byte[] bytes = new byte[head.remaining()];
+        head.get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * 自动检测的编码结果；以指定编码打开时返回 null
+     */
+    public CharsetDetector.Result getDetected() {
+        return detected;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getBytesDecoded() {
+        return bytesDecoded.get();
+    }
+
+    public long getCharsDecoded() {
+        return charsDecoded.get();
+    }
+
+    public long getCacheChars() {
+        return cacheChars.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        window.clear();
+        scratch = new char[0];
+        if (store != null) {
+            store.close();
+        }
+    }
+}
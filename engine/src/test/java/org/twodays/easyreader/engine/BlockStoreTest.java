@@ -0,0 +1,96 @@
+package org.twodays.easyreader.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BlockStoreTest {
+
+    @Test
+    public void readsBackCompressedBytes() throws IOException {
+        byte[] bytes = sample(3 * BlockStore.CHUNK_BYTES + 123);
+        File file = File.createTempFile("store", BlockStore.SUFFIX);
+        try {
+            BlockStore.compress(new ByteArrayInputStream(bytes), new CharsetDetector.Result("UTF-8", 90), file);
+            BlockStore store = BlockStore.open(file);
+            assertEquals(bytes.length, store.size());
+            // 跨块的区间
+            int start = BlockStore.CHUNK_BYTES - 10;
+            assertArrayEquals(Arrays.copyOfRange(bytes, start, start + 100), toArray(store.range(start, start + 100)));
+            store.close();
+            // 关闭后仍可读取（临时的 Inflater）
+            assertEquals(bytes[bytes.length - 1], store.get(bytes.length - 1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void truncatedChunkFailsInsteadOfSpinning() throws IOException {
+        byte[] bytes = sample(BlockStore.CHUNK_BYTES);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] compressed = new byte[bytes.length * 2];
+        int length = deflater.deflate(compressed);
+        deflater.end();
+
+        // 与 BlockStore.compress 相同的格式，但块的压缩数据只有前一半
+        File file = File.createTempFile("store", BlockStore.SUFFIX);
+        try {
+            int half = length / 2;
+            long trailer = 16 + half;
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeInt(0x45524253);
+                out.writeInt(1);
+                out.writeLong(trailer);
+                out.write(compressed, 0, half);
+                out.writeInt(bytes.length);
+                out.writeLong(0);
+                out.writeUTF("UTF-8");
+                out.writeInt(90);
+                out.writeInt(2);
+                out.writeLong(16);
+                out.writeLong(trailer);
+            }
+            BlockStore store = BlockStore.open(file);
+            try {
+                store.range(0, 100);
+                fail("Expected CorruptedBlockException");
+            } catch (BlockStore.CorruptedBlockException expected) {
+                // 截断的块
+            } finally {
+                store.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] sample(int length) {
+        Random random = new Random(7);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(20));
+        }
+        return bytes;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.remaining()];
+        buffer.get(out);
+        return out;
+    }
+}
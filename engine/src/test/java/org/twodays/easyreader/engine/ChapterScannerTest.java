@@ -0,0 +1,130 @@
+package org.twodays.easyreader.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link ChapterScanner} 必须与原来的两个正则（整篇文本、MULTILINE，数字标题过滤 1900-2099 年份）给出完全相同的章节，
+ * 文本在任意位置分块输入时也一样。
+ */
+public class ChapterScannerTest {
+
+    private static final Pattern CHINESE_PATTERN = Pattern.compile(
+            "^(\\s*第[一二三四五六七八九十百千万0-9]+[章节])",
+            Pattern.MULTILINE);
+    private static final Pattern DIGIT_PATTERN = Pattern.compile(
+            "^(\\s*[0-9]{2,})",
+            Pattern.MULTILINE);
+
+    // 随机文本的组成部分：标题的各个部分、年份、各种空白和行结束符、普通文字
+    private static final String[] TOKENS = {
+            "第", "一", "十", "百", "千", "万", "三", "0", "1", "2", "9", "12", "123", "1999", "2099", "2100", "1899",
+            "章", "节", "卷", " ", "  ", "\t", "\u000B", "\f", "　", "\n", "\n", "\r", "\r\n", " ", "\u0085",
+            " ", "的", "他说", "a", "。", "第一章", "第12节", "\n第二十章 风起\n", "\n  2023年\n", "\n007\n"
+    };
+
+    @Test
+    public void matchesRegexOnRandomText() {
+        Random random = new Random(20240611);
+        for (int round = 0; round < 30000; round++) {
+            String text = randomText(random, 1 + random.nextInt(60));
+            assertSameChapters(text, randomSplits(random, text.length()));
+        }
+    }
+
+    @Test
+    public void matchesRegexOnBoundaryCases() {
+        String[] cases = {
+                "", "12", "1", "第一章", "第章", "  \n\n 第三节 标题\n正文", "1999\n2000\n1899\n21000\n0123",
+                "正文\r\n\r\n  45 标题", "正文\r", "\r\n第十章", "　第一章", "a   66", "第1\n2章",
+        };
+        for (String text : cases) {
+            for (int split = 0; split <= text.length(); split++) {
+                assertSameChapters(text, split == 0 ? new int[0] : new int[]{split});
+            }
+        }
+    }
+
+    private static String randomText(Random random, int tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return sb.toString();
+    }
+
+    // 递增的分块位置（可能重复，即空块）
+    private static int[] randomSplits(Random random, int length) {
+        int[] splits = new int[random.nextInt(5)];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = random.nextInt(length + 1);
+        }
+        java.util.Arrays.sort(splits);
+        return splits;
+    }
+
+    private static void assertSameChapters(String text, int[] splits) {
+        List<String> expected = regexChapters(text);
+        ChapterScanner scanner = new ChapterScanner();
+        char[] chars = text.toCharArray();
+        int from = 0;
+        for (int i = 0; i <= splits.length; i++) {
+            int to = i < splits.length ? splits[i] : chars.length;
+            char[] block = new char[to - from];
+            System.arraycopy(chars, from, block, 0, block.length);
+            scanner.feed(block, block.length, from);
+            from = to;
+        }
+        scanner.finish();
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i < scanner.getCount(); i++) {
+            actual.add(scanner.getStart(i) + ":" + scanner.getTitle(i));
+        }
+        assertEquals("text=" + escape(text) + " splits=" + java.util.Arrays.toString(splits), expected, actual);
+    }
+
+    /**
+     * 原来的实现：两个正则分别匹配，过滤年份，按起点排序
+     */
+    private static List<String> regexChapters(String text) {
+        List<int[]> starts = new ArrayList<>();
+        List<String> found = new ArrayList<>();
+        Matcher matcher = CHINESE_PATTERN.matcher(text);
+        while (matcher.find()) {
+            found.add(matcher.start() + ":" + matcher.group().trim());
+        }
+        matcher = DIGIT_PATTERN.matcher(text);
+        while (matcher.find()) {
+            String title = matcher.group().trim();
+            if (title.length() == 4) {
+                int num = Integer.parseInt(title);
+                if (num >= 1900 && num <= 2099) {
+                    continue;
+                }
+            }
+            found.add(matcher.start() + ":" + title);
+        }
+        Collections.sort(found, (a, b) -> Integer.compare(startOf(a), startOf(b)));
+        return found;
+    }
+
+    private static int startOf(String chapter) {
+        return Integer.parseInt(chapter.substring(0, chapter.indexOf(':')));
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            sb.append(c < 0x20 || c == 0x85 || c == 0x2028 || c == 0x2029 ? String.format("\\u%04x", (int) c) : c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package org.twodays.easyreader.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 编码检测：BOM、无 BOM 的 UTF-16、GBK 与 BIG5 的区分、非法 UTF-8 的回退，
+ * 以及大文件只采样开头、中间、结尾三段。
+ */
+public class CharsetDetectorTest {
+
+    private static final String SIMPLIFIED = "第一章 风起\n天色渐暗，远处的山峦笼罩在一片薄雾之中。"
+            + "他站在城门口，望着来来往往的行人，心里想着明天该往哪里去。\n";
+    private static final String TRADITIONAL = "第一章 風起\n天色漸暗，遠處的山巒籠罩在一片薄霧之中。"
+            + "他站在城門口，望著來來往往的行人，心裡想著明天該往哪裡去。\n";
+    private static final String ENGLISH = "Chapter One\nThe night was cold and the road was long. "
+            + "He walked on without looking back.\n";
+
+    @Test
+    public void utf8Bom() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        assertDetected("UTF-8", 100, concat(bom, repeat(SIMPLIFIED, "UTF-8", 10)));
+    }
+
+    @Test
+    public void utf16Bom() throws IOException {
+        byte[] le = {(byte) 0xFF, (byte) 0xFE};
+        byte[] be = {(byte) 0xFE, (byte) 0xFF};
+        assertDetected("UTF-16LE", 100, concat(le, repeat(SIMPLIFIED, "UTF-16LE", 10)));
+        assertDetected("UTF-16BE", 100, concat(be, repeat(SIMPLIFIED, "UTF-16BE", 10)));
+    }
+
+    @Test
+    public void utf16WithoutBom() throws IOException {
+        // 西文为主：靠固定位置的 0 字节
+        assertEquals("UTF-16LE", detect(repeat(ENGLISH, "UTF-16LE", 20)).encoding);
+        assertEquals("UTF-16BE", detect(repeat(ENGLISH, "UTF-16BE", 20)).encoding);
+        // 中文为主：靠常用字符区
+        assertEquals("UTF-16LE", detect(repeat(SIMPLIFIED, "UTF-16LE", 20)).encoding);
+        assertEquals("UTF-16BE", detect(repeat(SIMPLIFIED, "UTF-16BE", 20)).encoding);
+    }
+
+    @Test
+    public void utf8WithoutBom() throws IOException {
+        CharsetDetector.Result result = detect(repeat(SIMPLIFIED, "UTF-8", 20));
+        assertEquals("UTF-8", result.encoding);
+        assertEquals(99, result.confidence);
+    }
+
+    @Test
+    public void gbkAndBig5() throws IOException {
+        assertEquals("GBK", detect(repeat(SIMPLIFIED, "GBK", 20)).encoding);
+        assertEquals("BIG5", detect(repeat(TRADITIONAL, "BIG5", 20)).encoding);
+    }
+
+    @Test
+    public void pureAscii() throws IOException {
+        assertDetected("UTF-8", 60, repeat(ENGLISH, "US-ASCII", 20));
+        assertDetected("UTF-8", 0, new byte[0]);
+    }
+
+    @Test
+    public void invalidUtf8FallsBack() throws IOException {
+        // 西文单字节编码的高位字节不构成合法的 UTF-8 序列
+        String latin = "Café crème brûlée, naïve façade, © ½ °C.\n";
+        assertDetected("ISO-8859-1", 30, repeat(latin, "ISO-8859-1", 20));
+
+        // 少量非法字节（<= 1%）仍按 UTF-8，只是置信度降低
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 5; i++) {
+            out.write(repeat(SIMPLIFIED, "UTF-8", 10));
+            out.write(0xFF);
+        }
+        assertDetected("UTF-8", 85, out.toByteArray());
+    }
+
+    @Test
+    public void samplesMiddleAndEndWhenHeadIsAscii() throws IOException {
+        // 开头超过三段采样长度的纯 ASCII（如英文版权声明），正文为 GBK
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < CharsetDetector.SAMPLE_BYTES * 3) {
+            out.write(ENGLISH.getBytes("US-ASCII"));
+        }
+        while (out.size() < CharsetDetector.SAMPLE_BYTES * 8) {
+            out.write(SIMPLIFIED.getBytes("GBK"));
+        }
+        byte[] bytes = out.toByteArray();
+        assertEquals("GBK", detect(bytes).encoding);
+
+        // 输入流只读取开头部分：整段是 ASCII，无法看到正文
+        CharsetDetector.Result head = CharsetDetector.detect(new ByteArrayInputStream(bytes));
+        assertEquals("UTF-8", head.encoding);
+        assertEquals(60, head.confidence);
+    }
+
+    @Test
+    public void middleSampleStartsAfterNewline() throws IOException {
+        // 中间和结尾的采样点落在多字节字符中间时，从下一个换行符之后开始统计
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < CharsetDetector.SAMPLE_BYTES * 8) {
+            out.write(SIMPLIFIED.getBytes("UTF-8"));
+            out.write(' ');     // 让每行长度为奇数，采样点不总在字符边界上
+        }
+        CharsetDetector.Result result = detect(out.toByteArray());
+        assertEquals("UTF-8", result.encoding);
+        assertEquals(99, result.confidence);
+    }
+
+    private static CharsetDetector.Result detect(byte[] bytes) {
+        return CharsetDetector.detect(ByteBuffer.wrap(bytes));
+    }
+
+    private static void assertDetected(String encoding, int confidence, byte[] bytes) {
+        CharsetDetector.Result result = detect(bytes);
+        assertEquals(result.toString(), encoding, result.encoding);
+        assertEquals(result.toString(), confidence, result.confidence);
+        assertTrue(result.confidence <= 100);
+    }
+
+    private static byte[] repeat(String text, String encoding, int times) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] bytes = text.getBytes(encoding);
+        for (int i = 0; i < times; i++) {
+            out.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
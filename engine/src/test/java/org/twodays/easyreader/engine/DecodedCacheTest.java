@@ -0,0 +1,99 @@
+package org.twodays.easyreader.engine;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DecodedCacheTest {
+
+    @Test
+    public void concurrentWritersForOneBookDoNotCorruptEachOther() throws IOException {
+        File dir = newDir();
+        TextDocument doc = open("第一章 开始\n正文内容。\n");
+        char[] text = doc.getText(0, doc.length()).toCharArray();
+        // 阅读和导入同时写同一本书：交替写入，各自使用自己的临时文件
+        DecodedCache.Writer first = new DecodedCache.Writer(dir, "book", doc);
+        DecodedCache.Writer second = new DecodedCache.Writer(dir, "book", doc);
+        first.append(text, 3);
+        second.append(text, text.length);
+        first.append(Arrays.copyOfRange(text, 3, text.length), text.length - 3);
+        second.finish(doc.getBlockByteStarts(), doc.getBlockCharStarts(), new ArrayList<Chapter>());
+        first.finish(doc.getBlockByteStarts(), doc.getBlockCharStarts(), new ArrayList<Chapter>());
+        first.close();
+        second.close();
+
+        DecodedCache cache = DecodedCache.open(dir, "book", "GBK", doc.getByteLength(), doc.getLastModified());
+        assertNotNull(cache);
+        assertEquals(new String(text), new String(cache.read(0, text.length)));
+        assertEquals(1, dir.listFiles().length); // 没有留下临时文件
+        deleteDir(dir);
+    }
+
+    @Test
+    public void trimKeepsFilesBeingWritten() throws IOException {
+        File dir = newDir();
+        TextDocument doc = open("正文\n");
+        DecodedCache.Writer writer = new DecodedCache.Writer(dir, "writing", doc);
+        writer.append(new char[]{'a'}, 1);
+        File large = new File(dir, "old.dec");
+        try (RandomAccessFile raf = new RandomAccessFile(large, "rw")) {
+            raf.setLength(DecodedCache.MAX_TOTAL_BYTES + 1); // 稀疏文件
+        }
+        DecodedCache.trim(dir, null);
+        assertFalse(large.exists());
+        assertEquals(1, dir.listFiles().length); // 只剩正在写入的临时文件
+        writer.close();
+        assertEquals(0, dir.listFiles().length);
+        deleteDir(dir);
+    }
+
+    @Test
+    public void deleteRemovesAllEncodingsOfABook() throws IOException {
+        File dir = newDir();
+        TextDocument doc = open("正文\n");
+        DecodedCache.Writer writer = new DecodedCache.Writer(dir, "book", doc);
+        char[] text = doc.getText(0, doc.length()).toCharArray();
+        writer.append(text, text.length);
+        writer.finish(doc.getBlockByteStarts(), doc.getBlockCharStarts(), new ArrayList<Chapter>());
+        writer.close();
+        assertTrue(new File(dir, DecodedCache.getFile(dir, "other", "GBK").getName()).createNewFile());
+
+        DecodedCache.delete(dir, "book");
+        assertNull(DecodedCache.open(dir, "book", "GBK", doc.getByteLength(), doc.getLastModified()));
+        assertEquals(1, dir.listFiles().length); // 其他书籍的缓存保留
+        deleteDir(dir);
+    }
+
+    private static TextDocument open(String text) throws IOException {
+        TextDocument doc = TextDocument.open(ByteBuffer.wrap(text.getBytes("GBK")), "GBK", 1000);
+        doc.scan(null, null);
+        return doc;
+    }
+
+    private static File newDir() throws IOException {
+        File dir = File.createTempFile("decoded", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,117 @@
+package org.twodays.easyreader.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 字符偏移与字节偏移的换算：对任意（不在代理对中间的）字符偏移 c，charOffsetOf(byteOffsetOf(c)) == c，
+ * 包括非法字节、不完整的多字节字符和 "\r\n"。
+ */
+public class TextDocumentTest {
+
+    @Test
+    public void roundTripUtf8WithInvalidBytes() throws IOException {
+        // 每 10 行插入一个 0xFF，共约 3000 个字符
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int line = 0; line < 200; line++) {
+            out.write(("第" + line + "行，中文内容\n").getBytes("UTF-8"));
+            if (line % 10 == 0) {
+                out.write(0xFF);
+            }
+        }
+        assertRoundTrip(open(out.toByteArray(), "UTF-8"), 1);
+    }
+
+    @Test
+    public void roundTripUtf8WithTruncatedSequences() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] han = "汉".getBytes("UTF-8");
+        for (int i = 0; i < 300; i++) {
+            out.write("abc".getBytes("UTF-8"));
+            out.write(han, 0, 1 + i % 2);      // 只有前 1 或 2 个字节
+            if (i % 3 == 0) {
+                out.write(0xFF);
+            }
+            out.write(han);
+            out.write("😀\r\n".getBytes("UTF-8"));
+            if (i % 7 == 0) {
+                out.write('\r');
+            }
+        }
+        assertRoundTrip(open(out.toByteArray(), "UTF-8"), 1);
+    }
+
+    @Test
+    public void roundTripGbkWithInvalidBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 300; i++) {
+            out.write(("第" + i + "章 标题\r\n").getBytes("GBK"));
+            out.write(new byte[]{(byte) 0x81, ' ', (byte) 0xFF, (byte) 0x80, 'x', (byte) 0xD6});
+            out.write("正文。\n".getBytes("GBK"));
+        }
+        assertRoundTrip(open(out.toByteArray(), "GBK"), 1);
+    }
+
+    @Test
+    public void roundTripAcrossBlocks() throws IOException {
+        // 多个块（每块约 64 KB），随机插入非法字节，抽样检查
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] line = "这是一行比较长的中文文本，用来填满多个块。\r\n".getBytes("UTF-8");
+        while (out.size() < 5 * TextDocument.BLOCK_BYTES) {
+            out.write(line, 0, random.nextInt(10) == 0 ? random.nextInt(line.length) : line.length);
+            if (random.nextInt(5) == 0) {
+                out.write(0x80 + random.nextInt(0x80));
+            }
+        }
+        TextDocument document = open(out.toByteArray(), "UTF-8");
+        assertTrue(document.getBlockCount() > 1);
+        assertRoundTrip(document, 13);
+    }
+
+    @Test
+    public void byteOffsetsAreMonotonic() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            out.write(("行" + i + "\r\n").getBytes("UTF-8"));
+            out.write(0xC3);
+        }
+        byte[] bytes = out.toByteArray();
+        TextDocument document = open(bytes, "UTF-8");
+        long previous = -1;
+        for (int c = 0; c <= document.length(); c++) {
+            long position = document.byteOffsetOf(c);
+            assertTrue("offset " + c, position > previous || c == 0);
+            assertTrue(position <= bytes.length);
+            previous = position;
+        }
+        assertEquals(bytes.length, document.byteOffsetOf(document.length()));
+    }
+
+    private static TextDocument open(byte[] bytes, String encoding) throws IOException {
+        TextDocument document = TextDocument.open(ByteBuffer.wrap(bytes), encoding, 0);
+        document.scan(null, null);
+        // 与一次性解码整个文件的结果一致（非法字节各替换为一个 U+FFFD）
+        String expected = new String(bytes, Charset.forName(encoding)).replace("\r\n", "\n").replace('\r', '\n');
+        assertEquals(expected, document.getText(0, document.length()));
+        return document;
+    }
+
+    private static void assertRoundTrip(TextDocument document, int step) {
+        String text = document.getText(0, document.length());
+        for (int c = 0; c <= text.length(); c += step) {
+            if (c > 0 && c < text.length() && Character.isLowSurrogate(text.charAt(c))) {
+                continue; // 代理对中间不是有效的阅读位置
+            }
+            assertEquals("offset " + c, c, document.charOffsetOf(document.byteOffsetOf(c)));
+        }
+    }
+}